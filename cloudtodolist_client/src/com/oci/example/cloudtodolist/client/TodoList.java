@@ -1,30 +1,35 @@
 package com.oci.example.cloudtodolist.client;
 
-import com.google.gwt.appengine.channel.client.Channel;
-import com.google.gwt.appengine.channel.client.ChannelFactory;
-import com.google.gwt.appengine.channel.client.ChannelFactory.ChannelCreatedCallback;
-import com.google.gwt.appengine.channel.client.SocketError;
-import com.google.gwt.appengine.channel.client.SocketListener;
 import com.google.gwt.cell.client.Cell;
 import com.google.gwt.cell.client.CheckboxCell;
 import com.google.gwt.cell.client.ClickableTextCell;
 import com.google.gwt.cell.client.FieldUpdater;
+import com.google.gwt.core.client.Duration;
 import com.google.gwt.core.client.EntryPoint;
+import com.google.gwt.core.client.GWT;
 import com.google.gwt.core.client.JsArray;
+import com.google.gwt.core.client.JsArrayInteger;
+import com.google.gwt.core.client.RunAsyncCallback;
+import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.dom.client.Style;
 import com.google.gwt.event.dom.client.*;
 import com.google.gwt.event.logical.shared.ValueChangeEvent;
 import com.google.gwt.event.logical.shared.ValueChangeHandler;
 import com.google.gwt.http.client.*;
-import com.google.gwt.i18n.client.DateTimeFormat;
+import com.google.gwt.i18n.client.Dictionary;
 import com.google.gwt.user.cellview.client.CellTable;
 import com.google.gwt.user.cellview.client.Column;
+import com.google.gwt.user.cellview.client.HasKeyboardPagingPolicy;
 import com.google.gwt.user.cellview.client.HasKeyboardSelectionPolicy;
+import com.google.gwt.user.client.Timer;
 import com.google.gwt.user.client.Window;
 import com.google.gwt.user.client.ui.*;
 import com.google.gwt.view.client.ListDataProvider;
 import com.google.gwt.view.client.NoSelectionModel;
 import com.google.gwt.view.client.ProvidesKey;
+import com.oci.example.cloudtodolist.sync.CompareCreated;
+import com.oci.example.cloudtodolist.sync.EntryIndex;
+import com.oci.example.cloudtodolist.sync.SyncEngine;
 
 import java.util.*;
 
@@ -38,9 +43,17 @@ public class TodoList implements EntryPoint {
     private static final String TODOLIST_BASE_URL = Window.Location.getProtocol() + "//"
             + Window.Location.getHost()
             + "/todolist/";
-    private static final String ENTRY_URL = TODOLIST_BASE_URL + "entries/";
     private static final String ENTRY_LIST_URL = TODOLIST_BASE_URL + "entries";
+    private static final String ENTRY_BATCH_URL = TODOLIST_BASE_URL + "entries/batch";
+    private static final String ENTRY_DELETE_URL = TODOLIST_BASE_URL + "entries/delete";
     private static final String UPDATE_CHANNEL_URL = TODOLIST_BASE_URL + "update_channel";
+    private static final String METRICS_URL = TODOLIST_BASE_URL + "metrics";
+
+    // Supersede key of the entry list requests
+    private static final String ENTRY_LIST_REQUEST_KEY = "entries";
+
+    // Delay after the last change before the local cache is written
+    private static final int SAVE_CACHE_DELAY_MS = 2000;
 
     private static final ProvidesKey<TodoListEntry> todoListEntryKeyProvider = new ProvidesKey<TodoListEntry>() {
         public Object getKey(TodoListEntry entry) {
@@ -48,12 +61,144 @@ public class TodoList implements EntryPoint {
         }
     };
 
-    private final Map<Integer, TodoListEntry> todolistEntryMap = new HashMap<Integer, TodoListEntry>();
+    private final SyncEngine<TodoListEntry> todoListSyncEngine = new SyncEngine<TodoListEntry>(
+            new SyncEngine.Listener<TodoListEntry>() {
+                @Override
+                public TodoListEntry rebase(TodoListEntry entry) {
+                    return todoListMutationQueue.rebase(entry);
+                }
+
+                @Override
+                public void onPut(TodoListEntry entry, TodoListEntry oldEntry) {
+                    if (oldEntry != null && oldEntry.getCreated() != entry.getCreated())
+                        todoListEntryIndex.remove(oldEntry);
+
+                    todoListSearchIndex.put(entry);
+                    if (isListed(entry))
+                        todoListEntryIndex.put(entry);
+                    else
+                        todoListEntryIndex.remove(entry);
+                }
+
+                @Override
+                public void onRemove(TodoListEntry oldEntry) {
+                    todoListSearchIndex.remove(oldEntry.getId());
+                    todoListEntryIndex.remove(oldEntry);
+                }
+            });
     private final NoSelectionModel<TodoListEntry> noEntrySelectionModel = new NoSelectionModel<TodoListEntry>();
     private final ListDataProvider<TodoListEntry> todoListDataProvider = new ListDataProvider<TodoListEntry>();
+    private final TodoListMetrics todoListMetrics = new TodoListMetrics(
+            new TodoListMetrics.Sender() {
+                @Override
+                public void sendMetrics(String json) {
+                    sendRequest(METRICS_URL, RequestBuilder.POST, json,
+                            TodoListRequestScheduler.Priority.BACKGROUND, new MetricsResponseHandler());
+                }
+            });
+    private final TodoListRequestScheduler todoListRequestScheduler = new TodoListRequestScheduler(todoListMetrics);
+    private final TodoListSearchIndex todoListSearchIndex = new TodoListSearchIndex();
+    private final EntryIndex<TodoListEntry> todoListEntryIndex = new EntryIndex<TodoListEntry>(
+            todoListDataProvider.getList(), new CompareCreated<TodoListEntry>());
+    private final TodoListUpdateBatch todoListUpdateBatch = new TodoListUpdateBatch(
+            new TodoListUpdateBatch.Handler() {
+                @Override
+                public void onUpdates(Collection<TodoListEntry> entries) {
+                    double start = Duration.currentTimeMillis();
+                    for (TodoListEntry entry : entries)
+                        todoListSyncEngine.apply(entry);
+                    todoListMetrics.record("merge", Duration.currentTimeMillis() - start);
+                    refreshTodoListDisplay();
+                    saveCacheTimer.schedule(SAVE_CACHE_DELAY_MS);
+                }
+            });
+    private final TodoListMutationQueue todoListMutationQueue = new TodoListMutationQueue(getUserId(),
+            new TodoListMutationQueue.Sender() {
+                @Override
+                public void sendBatch(String json) {
+                    sendRequest(ENTRY_BATCH_URL, RequestBuilder.POST, json,
+                            TodoListRequestScheduler.Priority.WRITE, new EntryBatchResponseHandler());
+                }
+
+                @Override
+                public void onLogClaimed(List<Integer> clientIds) {
+                    // The leader sends the edits, and the server copies arrive as updates
+                    todoListUpdateBatch.flush();
+                    for (int clientId : clientIds)
+                        todoListSyncEngine.remove(clientId);
+                    refreshTodoListDisplay();
+                }
+            });
+    private final TodoListUpdateChannel.Listener todoListUpdateChannelListener =
+            new TodoListUpdateChannel.Listener() {
+                @Override
+                public void requestToken() {
+                    sendRequest(UPDATE_CHANNEL_URL, RequestBuilder.GET, null,
+                            TodoListRequestScheduler.Priority.BACKGROUND, new UpdateChannelResponseHandler());
+                }
+
+                @Override
+                public void onMessage(String message) {
+                    applyUpdateMessage(message);
+                    todoListTabLeader.broadcast(message);
+                }
+
+                @Override
+                public void onReconnect() {
+                    // Fetch the updates sent while the channel was down
+                    catchUpTodoListEntries();
+                    todoListTabLeader.broadcastResync();
+                }
+            };
+    private TodoListUpdateChannel todoListUpdateChannel = null;
+    private final TodoListTabLeader todoListTabLeader = new TodoListTabLeader(getUserId(),
+            new TodoListTabLeader.Listener() {
+                @Override
+                public void onLeader(final boolean takeover) {
+                    runWithUpdateChannel(new UpdateChannelCommand() {
+                        @Override
+                        public void execute(TodoListUpdateChannel channel) {
+                            channel.connect(takeover);
+                        }
+                    });
+                }
+
+                @Override
+                public void onFollower() {
+                    runWithUpdateChannel(new UpdateChannelCommand() {
+                        @Override
+                        public void execute(TodoListUpdateChannel channel) {
+                            channel.disconnect();
+                        }
+                    });
+                }
+
+                @Override
+                public void onLeaderHeartbeat() {
+                    adoptMutationLogs();
+                }
+
+                @Override
+                public void onMessage(String message) {
+                    applyUpdateMessage(message);
+                }
+
+                @Override
+                public void onResync() {
+                    catchUpTodoListEntries();
+                }
+            });
+    private final TodoListCache todoListCache = new TodoListCache(getUserId());
+    private final Timer saveCacheTimer = new Timer() {
+        @Override
+        public void run() {
+            saveCache();
+        }
+    };
 
     private final String HeaderText = "Cloud Todo List";
     private final String emptyText = "List is Empty.. you've been busy";
+    private final String noMatchText = "No entries match";
     private final String newEntryHelpText = "Add a new entry";
 
 
@@ -62,19 +207,30 @@ public class TodoList implements EntryPoint {
     private final Label emptyListLabel = new Label(emptyText);
     private final VerticalPanel todoListPanel = new VerticalPanel();
     private final CellTable<TodoListEntry> todoList = new CellTable<TodoListEntry>(todoListEntryKeyProvider);
+    private final TodoListScrollPager todoListPager = new TodoListScrollPager();
     private final HorizontalPanel toolPanel = new HorizontalPanel();
+    private final HorizontalPanel filterPanel = new HorizontalPanel();
+    private final TextBox searchBox = new TextBox();
+    private final ListBox completeFilterBox = new ListBox();
     private final Button refreshListButton = new Button("Refresh");
     private final Button clearCompletedButton = new Button("Clear Completed");
     private final TextBox newEntry = new TextBox();
     private final InlineLabel statusLabel = new InlineLabel("");
+    private TodoListEntryDialog todoListEntryDialog = null;
+
+    private String listETag = null;
 
-    private double lastSyncTime = 0;
-    private String updateToken = null;
+    // Only entries containing words starting with all the search words, and
+    //  with the complete flag of the complete filter, if set, are listed
+    private String[] searchWords = new String[0];
+    private Boolean completeFilter = null;
 
     public void onModuleLoad() {
 
         todoList.setKeyboardSelectionPolicy(HasKeyboardSelectionPolicy.KeyboardSelectionPolicy.ENABLED);
         todoList.setSelectionModel(noEntrySelectionModel);
+        todoList.setKeyboardPagingPolicy(HasKeyboardPagingPolicy.KeyboardPagingPolicy.INCREASE_RANGE);
+        todoList.setPageSize(TodoListScrollPager.PAGE_INCREMENT);
 
         Column<TodoListEntry, Boolean> completeColumn = addColumn(
                 new Column<TodoListEntry, Boolean>(new CheckboxCell()) {
@@ -85,8 +241,8 @@ public class TodoList implements EntryPoint {
                 },
                 new FieldUpdater<TodoListEntry, Boolean>() {
                     public void update(int index, TodoListEntry entry, Boolean value) {
-                        String urlString = ENTRY_URL + entry.getId() + "?complete=" + (value ? '1' : '0');
-                        sendRequest(urlString, RequestBuilder.PUT, new EntryResponseHandler());
+                        todoListMutationQueue.setComplete(entry.getId(), value);
+                        todoListUpdateBatch.add(todoListMutationQueue.rebase(entry));
                     }
                 }
         );
@@ -125,8 +281,7 @@ public class TodoList implements EntryPoint {
             public void onValueChange(ValueChangeEvent<String> stringValueChangeEvent) {
                 String newTitle = stringValueChangeEvent.getValue();
                 newEntry.setText("");
-                String urlString = ENTRY_LIST_URL + "?title=" + newTitle;
-                sendRequest(urlString, RequestBuilder.POST, new EntryResponseHandler());
+                todoListUpdateBatch.add(todoListMutationQueue.createEntry(newTitle));
             }
         });
 
@@ -157,27 +312,60 @@ public class TodoList implements EntryPoint {
         // Listen for mouse events on the clear completed
         clearCompletedButton.addClickHandler(new ClickHandler() {
             public void onClick(ClickEvent event) {
-                String urlString = ENTRY_LIST_URL;
                 List<Integer> entryIdList = new ArrayList<Integer>();
-                for (TodoListEntry entry : todoListDataProvider.getList()) {
-                    if (entry.isComplete()) {
-                        if (entryIdList.size() == 0) {
-                            urlString += "?id=" + Integer.toString(entry.getId());
-                        } else {
-                            urlString += ";id=" + Integer.toString(entry.getId());
-                        }
+                for (TodoListEntry entry : todoListSyncEngine.getEntries()) {
+                    if (entry.isComplete() && entry.getId() > 0)
                         entryIdList.add(entry.getId());
-                    }
                 }
 
                 if (entryIdList.size() > 0) {
-                    sendRequest(urlString, RequestBuilder.DELETE, new DeleteEntryResponseHandler(entryIdList));
+                    sendRequest(ENTRY_DELETE_URL, RequestBuilder.POST, encodeEntryIds(entryIdList),
+                            TodoListRequestScheduler.Priority.WRITE, new DeleteEntryResponseHandler(entryIdList));
+                }
+            }
+        });
+
+        searchBox.addKeyUpHandler(new KeyUpHandler() {
+            @Override
+            public void onKeyUp(KeyUpEvent event) {
+                String[] words = TodoListSearchIndex.parseWords(searchBox.getText());
+                if (!Arrays.equals(words, searchWords)) {
+                    searchWords = words;
+                    applyFilter();
                 }
             }
         });
 
+        completeFilterBox.addItem("All");
+        completeFilterBox.addItem("Active");
+        completeFilterBox.addItem("Completed");
+        completeFilterBox.addChangeHandler(new ChangeHandler() {
+            @Override
+            public void onChange(ChangeEvent event) {
+                switch (completeFilterBox.getSelectedIndex()) {
+                    case 1:
+                        completeFilter = false;
+                        break;
+                    case 2:
+                        completeFilter = true;
+                        break;
+                    default:
+                        completeFilter = null;
+                }
+                applyFilter();
+            }
+        });
+
         header.setStyleName("todoListHeader");
 
+        searchBox.setStyleName("searchBox");
+        searchBox.getElement().setAttribute("placeholder", "Search");
+        filterPanel.setStyleName("todoListFilter");
+        filterPanel.setSpacing(4);
+        filterPanel.add(searchBox);
+        filterPanel.add(completeFilterBox);
+        filterPanel.setCellWidth(searchBox, "100%");
+
         toolPanel.setSpacing(4);
         //toolPanel.add(refreshListButton);
         toolPanel.add(clearCompletedButton);
@@ -187,7 +375,10 @@ public class TodoList implements EntryPoint {
         todoList.setStyleName("todoList");
         todoList.addColumnStyleName(0, "todoListColumn");
         todoList.addColumnStyleName(1, "todoListColumn");
-        todoList.setVisible(false);
+
+        todoListPager.setDisplay(todoList);
+        todoListPager.setStyleName("todoListScroll");
+        todoListPager.setVisible(false);
 
         //emptyListLabel.setStyleName("todoList");
         emptyListLabel.addStyleName("todoListText");
@@ -199,8 +390,9 @@ public class TodoList implements EntryPoint {
 
         todoListPanel.setStyleName("todoListPanel");
         todoListPanel.setHorizontalAlignment(HasHorizontalAlignment.ALIGN_CENTER);
+        todoListPanel.add(filterPanel);
         todoListPanel.add(emptyListLabel);
-        todoListPanel.add(todoList);
+        todoListPanel.add(todoListPager);
         todoListPanel.add(newEntry);
         todoListPanel.setHorizontalAlignment(HasHorizontalAlignment.ALIGN_LEFT);
         todoListPanel.add(toolPanel);
@@ -211,112 +403,194 @@ public class TodoList implements EntryPoint {
         mainPanel.add(todoListPanel);
         mainPanel.add(statusLabel);
 
+        Window.addWindowClosingHandler(new Window.ClosingHandler() {
+            @Override
+            public void onWindowClosing(Window.ClosingEvent event) {
+                saveCache();
+                todoListMetrics.flushBeacon(METRICS_URL);
+            }
+        });
+        todoListMetrics.start();
+
+        // Display the cached list right away, and only ask the server
+        //  for the changes since it was cached
+        TodoListEntryList cachedList = todoListCache.load();
+        if (cachedList != null) {
+            todoListSyncEngine.setLastSyncTime(cachedList.getTimeStamp());
+            listETag = cachedList.getETag();
+            JsArray<TodoListEntry> entries = cachedList.getEntries();
+            for (int i = 0; i < entries.length(); i++) {
+                // Entries not yet created come from the mutation logs, once adopted
+                if (entries.get(i).getId() > 0)
+                    todoListSyncEngine.apply(entries.get(i));
+            }
+        }
+        refreshTodoListDisplay();
+
         refreshTodoListEntries();
 
         // Add it to the root panel.
         RootPanel.get("todoList").add(mainPanel);
     }
 
-    private void refreshTodoListDisplay() {
-        List<TodoListEntry> data = new ArrayList<TodoListEntry>(todolistEntryMap.values());
-        Collections.sort(data, new TodoListEntry.CompareCreated());
-
-        int size = data.size();
-        if (size == 0){
-            emptyListLabel.setVisible(true);
-            todoList.setVisible(false);
-        }  else {
-            emptyListLabel.setVisible(false);
-            todoList.setVisible(true);
+    /**
+     * Returns the id of the logged in user, written into the host page by the server
+     */
+    private static String getUserId() {
+        try {
+            return Dictionary.getDictionary("todoListConfig").get("userId");
+        } catch (MissingResourceException e) {
+            return "anonymous";
         }
-
-        todoList.setPageSize(size);
-        todoListDataProvider.setList(data);
-        todoListDataProvider.refresh();
-
     }
 
-    private void showEntryInfoDialogBox(final TodoListEntry entry) {
-        final DialogBox dialogBox = new DialogBox();
-        dialogBox.setText("Entry");
-
-        // Enable animation.
-        dialogBox.setAnimationEnabled(true);
+    private void saveCache() {
+        // Queued entries must be applied, since lastSyncTime may already include them
+        todoListUpdateBatch.flush();
+        todoListCache.save(todoListSyncEngine.getLastSyncTime(), listETag, todoListSyncEngine.getEntries());
+        saveCacheTimer.cancel();
+    }
 
-        // Enable glass background.
-        dialogBox.setGlassEnabled(true);
-        dialogBox.setModal(true);
+    /**
+     * Adopts the edits the user's closed tabs left unacknowledged, including
+     * those of this tab's previous session, and displays them
+     */
+    private void adoptMutationLogs() {
+        List<Integer> entryIds = todoListMutationQueue.adoptAbandonedLogs();
+        if (entryIds.isEmpty())
+            return;
+
+        Set<Integer> adoptedIds = new HashSet<Integer>(entryIds);
+        todoListUpdateBatch.flush();
+        for (TodoListEntry entry : todoListMutationQueue.getCreatedEntries()) {
+            if (adoptedIds.contains(entry.getId()))
+                todoListUpdateBatch.add(entry);
+        }
+        // Reapplying an entry rebases it on the adopted edits
+        for (int id : adoptedIds) {
+            TodoListEntry entry = todoListSyncEngine.get(id);
+            if (entry != null)
+                todoListUpdateBatch.add(entry);
+        }
+    }
 
-        VerticalPanel dialogContents = new VerticalPanel();
-        dialogContents.setSpacing(4);
+    private boolean isListed(TodoListEntry entry) {
+        return (completeFilter == null || entry.isComplete() == completeFilter)
+                && todoListSearchIndex.matches(entry.getId(), searchWords);
+    }
 
+    /**
+     * Lists the entries matching the search words and complete filter. The
+     * search index narrows the entries down to those matching the search.
+     */
+    private void applyFilter() {
+        Collection<TodoListEntry> candidates = todoListSyncEngine.getEntries();
+        if (searchWords.length > 0) {
+            candidates = new ArrayList<TodoListEntry>();
+            for (int id : todoListSearchIndex.search(searchWords))
+                candidates.add(todoListSyncEngine.get(id));
+        }
 
-        dialogContents.add(new InlineLabel("Title:"));
-        final TextBox titleText = new TextBox();
-        titleText.setStyleName("editEntryDialogText");
-        titleText.setText(entry.getTitle());
-        dialogContents.add(titleText);
+        List<TodoListEntry> listed = new ArrayList<TodoListEntry>();
+        for (TodoListEntry entry : candidates) {
+            if (completeFilter == null || entry.isComplete() == completeFilter)
+                listed.add(entry);
+        }
 
-        dialogContents.add(new InlineLabel("Notes:"));
-        final TextArea notesText = new TextArea();
-        notesText.setStyleName("editEntryDialogText");
-        notesText.setVisibleLines(10);
-        notesText.setCharacterWidth(40);
-        notesText.setText(entry.getNotes());
-        dialogContents.add(notesText);
+        todoListEntryIndex.replace(listed);
+        todoList.setVisibleRange(0, TodoListScrollPager.PAGE_INCREMENT);
+        refreshTodoListDisplay();
+    }
 
-        final Date created = new Date((long) (entry.getCreated() * 1000));
-        final Date modified = new Date((long) (entry.getModified() * 1000));
-        final DateTimeFormat dateTimeFmt = DateTimeFormat.getFormat(DateTimeFormat.PredefinedFormat.DATE_TIME_SHORT);
+    /**
+     * Updates the display after entries have been applied. The index has
+     * already modified the rows of the data provider in place, which pushes
+     * only the modified rows within the table's visible range when it flushes.
+     */
+    private void refreshTodoListDisplay() {
+        final double start = Duration.currentTimeMillis();
+        todoListMetrics.setListSize(todoListSyncEngine.size());
 
-        final InlineLabel createdLabel = new InlineLabel("Created: " + dateTimeFmt.format(created));
-        createdLabel.setStyleName("entryDateText");
-        dialogContents.add(createdLabel);
+        int size = todoListEntryIndex.size();
+        if (size == 0){
+            emptyListLabel.setText(todoListSyncEngine.isEmpty() ? emptyText : noMatchText);
+            emptyListLabel.setVisible(true);
+            todoListPager.setVisible(false);
+        }  else {
+            emptyListLabel.setVisible(false);
+            todoListPager.setVisible(true);
+        }
 
-        final InlineLabel modifiedLabel = new InlineLabel("Last Modified: " + dateTimeFmt.format(modified));
-        modifiedLabel.setStyleName("entryDateText");
-        dialogContents.add(modifiedLabel);
+        // The table only renders the rows in its visible range, which the
+        //  pager extends as the user scrolls
+        todoListDataProvider.flush();
 
+        // The table redraws in a finally command scheduled by the flush, so this runs after it
+        Scheduler.get().scheduleFinally(new Scheduler.ScheduledCommand() {
+            @Override
+            public void execute() {
+                todoListMetrics.record("render", Duration.currentTimeMillis() - start);
+            }
+        });
+    }
 
-        HorizontalPanel buttonPanel = new HorizontalPanel();
+    /**
+     * Shows the entry in the entry dialog, which is loaded, and
+     * built, the first time an entry is shown
+     */
+    private void showEntryInfoDialogBox(final TodoListEntry entry) {
+        GWT.runAsync(TodoListEntryDialog.class, new RunAsyncCallback() {
+            @Override
+            public void onFailure(Throwable reason) {
+                statusLabel.setText("Failed to load the entry dialog: " + reason.getMessage());
+            }
 
-        // Add OK Button
-        Button okButton = new Button("OK", new ClickHandler() {
             @Override
-            public void onClick(ClickEvent event) {
-                String newTitle = titleText.getText();
-                String newNotes = notesText.getText();
-
-                if (!newTitle.equals(entry.getTitle())
-                        || !newNotes.equals(entry.getNotes())) {
-                    String urlString = ENTRY_URL + entry.getId()
-                            + "?title" + (newTitle.equals("") ? "" : ("=" + newTitle))
-                            + ";notes" + (newNotes.equals("") ? "" : ("=" + newNotes));
-                    sendRequest(urlString, RequestBuilder.PUT, new EntryResponseHandler());
+            public void onSuccess() {
+                if (todoListEntryDialog == null) {
+                    todoListEntryDialog = new TodoListEntryDialog(new TodoListEntryDialog.Listener() {
+                        @Override
+                        public void onSave(TodoListEntry entry, String title, String notes) {
+                            // An entry created in this tab may have been acknowledged,
+                            //  and replaced by the server's copy, since the dialog opened
+                            int id = todoListMutationQueue.getCurrentId(entry.getId());
+                            todoListMutationQueue.setTitleAndNotes(id, title, notes);
+                            TodoListEntry currentEntry = todoListSyncEngine.get(id);
+                            if (currentEntry != null)
+                                todoListUpdateBatch.add(todoListMutationQueue.rebase(currentEntry));
+                        }
+                    });
                 }
-
-                dialogBox.hide();
+                todoListEntryDialog.show(entry);
             }
         });
+    }
 
-        Button cancelButton = new Button("Cancel", new ClickHandler() {
+    /**
+     * Runs the command with the update channel. The channel, and the channel
+     * library, are loaded behind a split point, since they are only needed
+     * once the first list is loaded. Every use of the channel goes through
+     * here, so none of its code is part of the initial download.
+     */
+    private void runWithUpdateChannel(final UpdateChannelCommand command) {
+        GWT.runAsync(TodoListUpdateChannel.class, new RunAsyncCallback() {
             @Override
-            public void onClick(ClickEvent event) {
-                dialogBox.hide();
+            public void onFailure(Throwable reason) {
+                statusLabel.setText("Failed to load the update channel: " + reason.getMessage());
             }
-        });
-
-        buttonPanel.add(okButton);
-        buttonPanel.add(cancelButton);
-        buttonPanel.setSpacing(5);
-        dialogContents.add(buttonPanel);
 
-        dialogBox.setWidget(dialogContents);
-        dialogContents.setCellHorizontalAlignment(buttonPanel, HasHorizontalAlignment.ALIGN_LEFT);
-
-        dialogBox.center();
+            @Override
+            public void onSuccess() {
+                if (todoListUpdateChannel == null)
+                    todoListUpdateChannel = new TodoListUpdateChannel(todoListUpdateChannelListener);
+                command.execute(todoListUpdateChannel);
+            }
+        });
     }
 
+    interface UpdateChannelCommand {
+        void execute(TodoListUpdateChannel channel);
+    }
 
     private <T> Column<TodoListEntry, T> addColumn(Column<TodoListEntry, T> column,
                                                    FieldUpdater<TodoListEntry, T> fieldUpdater) {
@@ -326,27 +600,65 @@ public class TodoList implements EntryPoint {
     }
 
     private void refreshTodoListEntries() {
-        String URL = ENTRY_LIST_URL;
-        if (lastSyncTime != 0)
-            URL += "?modified=" + lastSyncTime;
-        sendRequest(URL, RequestBuilder.GET, new EntryListResponseHandler());
+        sendEntryListRequest(false);
     }
 
+    /**
+     * Requests the entries changed while the update channel was disconnected
+     */
+    private void catchUpTodoListEntries() {
+        sendEntryListRequest(true);
+    }
+
+    private void sendEntryListRequest(boolean catchUp) {
+        double lastSyncTime = todoListSyncEngine.getLastSyncTime();
+        boolean fullList = lastSyncTime == 0;
+        String URL = ENTRY_LIST_URL;
+        if (!fullList)
+            URL += "?since=" + (long) lastSyncTime;
+
+        // The server answers 304 if nothing changed since the response with this ETag
+        RequestBuilder builder = createRequest(URL, RequestBuilder.GET);
+        if (!fullList && listETag != null)
+            builder.setHeader("If-None-Match", listETag);
+
+        // A newer list request supersedes any older one still queued or in flight,
+        //  whose response would be no newer than this one's
+        TodoListRequestScheduler.Priority priority = catchUp
+                ? TodoListRequestScheduler.Priority.BACKGROUND : TodoListRequestScheduler.Priority.READ;
+        sendRequest(builder, null, priority, ENTRY_LIST_REQUEST_KEY, new EntryListResponseHandler(fullList, catchUp));
+    }
 
-    native TodoListEntryList parseTodoListEntryList(String json) /*-{
-        eval('var res = ' + json);
-        return res;
-    }-*/;
+    /**
+     * Drops the cache and sync time, and requests the full list
+     */
+    private void reloadTodoListEntries() {
+        todoListCache.clear();
+        todoListSyncEngine.setLastSyncTime(0);
+        listETag = null;
+        refreshTodoListEntries();
+    }
 
-    native TodoListEntry parseTodoListEntry(String json) /*-{
-        eval('var res = ' + json);
-        return res;
-    }-*/;
 
-    native String parseUpdateChannel(String json) /*-{
-        eval('var res = ' + json);
-        return res.token;
-    }-*/;
+    /**
+     * Queues the entries sent in an update channel message. The latency of
+     *  each entry, from when the server modified it, is recorded, so it
+     *  includes any clock difference between the server and the browser.
+     */
+    private void applyUpdateMessage(String message) {
+        try {
+            double start = Duration.currentTimeMillis();
+            JsArray<TodoListEntry> entries = TodoListJsonDecoder.decodeUpdate(message);
+            double now = Duration.currentTimeMillis();
+            todoListMetrics.record("decode.update", now - start);
+            for (int i = 0; i < entries.length(); i++) {
+                todoListUpdateBatch.add(entries.get(i));
+                todoListMetrics.record("channel.latency", Math.max(0, now - entries.get(i).getModified() * 1000));
+            }
+        } catch (IllegalArgumentException e) {
+            statusLabel.setText("Invalid update: " + e.getMessage());
+        }
+    }
 
     class ResponseHandler implements RequestCallback {
 
@@ -370,48 +682,181 @@ public class TodoList implements EntryPoint {
         }
     }
 
-    class EntryResponseHandler extends ResponseHandler {
-        @Override
-        public void onResponseReceived(Request request, Response response) {
-            switch (response.getStatusCode()) {
+    /**
+     * Ignores the response, the metrics are only sent on a best effort basis
+     */
+    class MetricsResponseHandler extends ResponseHandler {
 
-                case 200:
-                case 201:
-                    TodoListEntry entry = parseTodoListEntry(response.getText());
-                    todolistEntryMap.put(entry.getId(), entry);
-                    refreshTodoListDisplay();
+        @Override
+        public void onError(Request request, Throwable e) {
+        }
 
-                default:
-                    super.onResponseReceived(request, response);
-            }
+        @Override
+        public void onResponseReceived(Request request, Response response) {
         }
     }
 
     class EntryListResponseHandler extends ResponseHandler {
+
+        boolean fullList = false;
+        boolean catchUp = false;
+        String etag = null;
+
+        public EntryListResponseHandler(boolean fullList, boolean catchUp) {
+            this.fullList = fullList;
+            this.catchUp = catchUp;
+        }
+
         @Override
         public void onResponseReceived(Request request, Response response) {
             switch (response.getStatusCode()) {
 
+                case 304:
+                    // Nothing changed since lastSyncTime
+                    todoListTabLeader.start();
+                    return;
+
+                case 400:
+                    // The server rejects a sequence number ahead of its own,
+                    //  e.g. after its data was reset, so start over with the full list
+                    if (!fullList) {
+                        reloadTodoListEntries();
+                        return;
+                    }
+                    super.onResponseReceived(request, response);
+                    break;
+
                 case 200:
-                    TodoListEntryList entryList = parseTodoListEntryList(response.getText());
-                    lastSyncTime = entryList.getTimeStamp();
-                    JsArray<TodoListEntry> entries = entryList.getEntries();
-                    for (int i = 0; i < entries.length(); i++) {
-                        TodoListEntry entry = entries.get(i);
-                        if (entry.getDeleted())
-                            todolistEntryMap.remove(entry.getId());
-                        else
-                            todolistEntryMap.put(entry.getId(), entry);
+                    etag = response.getHeader("ETag");
+                    try {
+                        TodoListJsonDecoder.decodeEntryList(response.getText(),
+                                new TodoListJsonDecoder.EntryListHandler() {
+                                    @Override
+                                    public void onEntry(TodoListEntry entry) {
+                                        todoListUpdateBatch.add(entry);
+                                    }
+
+                                    @Override
+                                    public void onComplete(TodoListEntryList entryList, double decodeMillis) {
+                                        todoListMetrics.record("decode.list", decodeMillis);
+                                        onEntryListDecoded(entryList);
+                                    }
+                                });
+                    } catch (IllegalArgumentException e) {
+                        statusLabel.setText("Invalid response: " + e.getMessage());
                     }
-                    refreshTodoListDisplay();
-                    if (updateToken == null)
-                         sendRequest(UPDATE_CHANNEL_URL, RequestBuilder.GET,
-                                 new UpdateChannelResponseHandler());
 
                 default:
                     super.onResponseReceived(request, response);
             }
         }
+
+        private void onEntryListDecoded(TodoListEntryList entryList) {
+            JsArray<TodoListEntry> entries = entryList.getEntries();
+            if (fullList)
+                removeMissingEntries(getEntryIds(entries), entryList.getTimeStamp());
+            else if (entryList.getLive() != null)
+                removeMissingEntries(getEntryIds(entryList.getLive()), entryList.getTimeStamp());
+            if (todoListSyncEngine.advance(entryList.getTimeStamp()))
+                listETag = etag;
+            // Followers catch up too, but only the leader has loaded the channel
+            if (catchUp && todoListUpdateChannel != null) {
+                final int entryCount = entries.length();
+                runWithUpdateChannel(new UpdateChannelCommand() {
+                    @Override
+                    public void execute(TodoListUpdateChannel channel) {
+                        channel.onCatchUp(entryCount);
+                    }
+                });
+            }
+
+            // Only the leader tab connects the update channel
+            todoListTabLeader.start();
+        }
+    }
+
+    /**
+     * Removes the entries not in the full list, or the live ids of a compacted
+     *  list, just received. These were deleted on the server since they were
+     *  loaded, e.g. from the cache.
+     */
+    private void removeMissingEntries(Set<Integer> entryIds, double seq) {
+        todoListUpdateBatch.flush();
+        todoListSyncEngine.removeMissing(entryIds, seq);
+        refreshTodoListDisplay();
+    }
+
+    private static Set<Integer> getEntryIds(JsArray<TodoListEntry> entries) {
+        Set<Integer> entryIds = new HashSet<Integer>();
+        for (int i = 0; i < entries.length(); i++) {
+            if (entries.get(i) != null)
+                entryIds.add(entries.get(i).getId());
+        }
+        return entryIds;
+    }
+
+    private static String encodeEntryIds(List<Integer> entryIdList) {
+        StringBuilder json = new StringBuilder("{\"ids\":[");
+        for (int i = 0; i < entryIdList.size(); i++) {
+            if (i > 0)
+                json.append(',');
+            json.append(entryIdList.get(i));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static Set<Integer> getEntryIds(JsArrayInteger ids) {
+        Set<Integer> entryIds = new HashSet<Integer>();
+        for (int i = 0; i < ids.length(); i++)
+            entryIds.add(ids.get(i));
+        return entryIds;
+    }
+
+    class EntryBatchResponseHandler extends ResponseHandler {
+
+        @Override
+        public void onError(Request request, Throwable e) {
+            todoListMutationQueue.onBatchFailure(true);
+            super.onError(request, e);
+        }
+
+        @Override
+        public void onResponseReceived(Request request, Response response) {
+            int status_code = response.getStatusCode();
+            if (status_code == 200) {
+                // Operations on entries that no longer exist have a null entry
+                JsArray<TodoListEntry> entries;
+                try {
+                    entries = TodoListJsonDecoder.decodeEntryList(response.getText()).getEntries();
+                } catch (IllegalArgumentException e) {
+                    // The batch was applied, but the response was lost, so resend it
+                    todoListMutationQueue.onBatchFailure(true);
+                    statusLabel.setText("Invalid response: " + e.getMessage());
+                    return;
+                }
+
+                // Replace the local copies of created entries with the server's in
+                //  the same refresh, so created entries don't vanish for a frame
+                todoListUpdateBatch.flush();
+                for (int clientId : todoListMutationQueue.onBatchSuccess(entries)) {
+                    todoListSyncEngine.remove(clientId);
+                }
+                for (int i = 0; i < entries.length(); i++) {
+                    if (entries.get(i) != null)
+                        todoListSyncEngine.apply(entries.get(i));
+                }
+                refreshTodoListDisplay();
+                saveCacheTimer.schedule(SAVE_CACHE_DELAY_MS);
+            } else if (status_code >= 400 && status_code < 500) {
+                // The batch will never succeed, so drop it and reload
+                //  the list to undo its edits
+                todoListMutationQueue.onBatchFailure(false);
+                reloadTodoListEntries();
+            } else {
+                todoListMutationQueue.onBatchFailure(true);
+            }
+            super.onResponseReceived(request, response);
+        }
     }
 
     class DeleteEntryResponseHandler extends ResponseHandler {
@@ -427,8 +872,10 @@ public class TodoList implements EntryPoint {
             switch (response.getStatusCode()) {
 
                 case 200:
+                    // apply any queued updates first so they can't restore a deleted entry
+                    todoListUpdateBatch.flush();
                     for (int id : entryIdList) {
-                        todolistEntryMap.remove(id);
+                        todoListSyncEngine.remove(id);
                     }
                     refreshTodoListDisplay();
 
@@ -439,60 +886,58 @@ public class TodoList implements EntryPoint {
     }
 
     class UpdateChannelResponseHandler extends ResponseHandler {
+
         @Override
-        public void onResponseReceived(Request request, Response response) {
-            switch (response.getStatusCode()) {
+        public void onError(Request request, Throwable e) {
+            onToken(null);
+            super.onError(request, e);
+        }
 
-                case 200:
-                    updateToken = parseUpdateChannel(response.getText());
-                    ChannelFactory.createChannel(updateToken, new ChannelCreatedCallback() {
-                        @Override
-                        public void onChannelCreated(Channel channel) {
-                            channel.open(new SocketListener() {
-                                @Override
-                                public void onOpen() {
-                                }
-
-                                @Override
-                                public void onMessage(String message) {
-                                    TodoListEntry entry = parseTodoListEntry(message);
-                                    if (entry.getDeleted())
-                                        todolistEntryMap.remove(entry.getId());
-                                    else
-                                        todolistEntryMap.put(entry.getId(), entry);
-                                    refreshTodoListDisplay();
-                                }
-
-                                @Override
-                                public void onError(SocketError error) {
-                                    updateToken=null;
-                                }
-
-                                @Override
-                                public void onClose() {
-                                    updateToken=null;
-                                    sendRequest(UPDATE_CHANNEL_URL, RequestBuilder.GET,
-                                                    new UpdateChannelResponseHandler());
-                                }
-                            });
-                        }
-                    });
+        @Override
+        public void onResponseReceived(Request request, Response response) {
+            String token = null;
+            if (response.getStatusCode() == 200) {
+                try {
+                    token = TodoListJsonDecoder.decodeUpdateChannelToken(response.getText());
+                } catch (IllegalArgumentException e) {
+                    statusLabel.setText("Invalid response: " + e.getMessage());
+                }
+            }
 
+            onToken(token);
+            super.onResponseReceived(request, response);
+        }
 
-                default:
-                    super.onResponseReceived(request, response);
-            }
+        private void onToken(final String token) {
+            runWithUpdateChannel(new UpdateChannelCommand() {
+                @Override
+                public void execute(TodoListUpdateChannel channel) {
+                    if (token != null)
+                        channel.onToken(token);
+                    else
+                        channel.onTokenFailure();
+                }
+            });
         }
+    }
 
+    private void sendRequest(String url, RequestBuilder.Method httpMethod, String body,
+                             TodoListRequestScheduler.Priority priority, ResponseHandler handler) {
+        sendRequest(createRequest(url, httpMethod), body, priority, null, handler);
     }
 
-    private void sendRequest(String url, RequestBuilder.Method httpMethod, ResponseHandler handler) {
+    private RequestBuilder createRequest(String url, RequestBuilder.Method httpMethod) {
         RequestBuilder builder = new RequestBuilder(httpMethod, URL.encode(url));
-        builder.setHeader("Content-length","0");
-        try {
-            builder.sendRequest(null, handler);
-        } catch (RequestException e) {
-            statusLabel.setText("Server Error: " + e.toString());
-        }
+        builder.setHeader("Accept", TodoListJsonDecoder.COMPACT_CONTENT_TYPE + ", application/json");
+        return builder;
+    }
+
+    private void sendRequest(RequestBuilder builder, String body, TodoListRequestScheduler.Priority priority,
+                             String supersedeKey, ResponseHandler handler) {
+        if (body == null)
+            builder.setHeader("Content-length","0");
+        else
+            builder.setHeader("Content-type","application/json");
+        todoListRequestScheduler.send(builder, body, priority, supersedeKey, handler);
     }
 }
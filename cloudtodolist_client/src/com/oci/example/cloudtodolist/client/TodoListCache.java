@@ -0,0 +1,110 @@
+package com.oci.example.cloudtodolist.client;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+import com.google.gwt.storage.client.Storage;
+
+import java.util.Collection;
+
+/**
+ * Persists the todo list entries, and the sequence number they were synced to,
+ * in HTML5 local storage so that the list can be displayed immediately on
+ * startup and only the changes since then requested from the server.
+ *
+ * The cache is stored per user, as a JSON object with the same shape as an
+ * entry list response, plus the ETag of the last entry list response.
+ * Entries only store the fields that differ from their defaults.  If the
+ * browser doesn't support local storage, nothing is cached.
+ */
+class TodoListCache {
+
+    // Bump when the stored format, or the meaning of the timestamp, changes
+    private static final int VERSION = 3;
+
+    // Caches larger than this, in characters, are not stored
+    private static final int MAX_SIZE = 2 * 1024 * 1024;
+
+    private static final String KEY_PREFIX = "todolist.cache.";
+
+    private final Storage storage = Storage.getLocalStorageIfSupported();
+    private final String key;
+
+    TodoListCache(String userId) {
+        this.key = KEY_PREFIX + userId;
+    }
+
+    /**
+     * Returns the cached entry list, or null if there is no usable cache
+     */
+    public TodoListEntryList load() {
+        if (storage == null)
+            return null;
+
+        String json = storage.getItem(key);
+        if (json == null)
+            return null;
+
+        TodoListEntryList entryList = parseCache(json, VERSION);
+        if (entryList == null)
+            clear();
+        return entryList;
+    }
+
+    /**
+     * Stores the entries along with the sequence number and ETag of the sync they are current to
+     */
+    public void save(double timestamp, String etag, Collection<TodoListEntry> entries) {
+        if (storage == null)
+            return;
+
+        JsArray<JavaScriptObject> compactEntries = JavaScriptObject.createArray().cast();
+        for (TodoListEntry entry : entries) {
+            // Entries not yet created are kept in the mutation logs
+            if (entry.getId() > 0)
+                compactEntries.push(compactEntry(entry));
+        }
+
+        String json = encodeCache(VERSION, timestamp, etag, compactEntries);
+        if (json.length() > MAX_SIZE) {
+            clear();
+            return;
+        }
+
+        try {
+            storage.setItem(key, json);
+        } catch (Exception e) {
+            // Storage quota exceeded, drop the cache rather than keep a stale one
+            clear();
+        }
+    }
+
+    public void clear() {
+        if (storage != null)
+            storage.removeItem(key);
+    }
+
+    private static native TodoListEntryList parseCache(String json, int version) /*-{
+        try {
+            var res = JSON.parse(json);
+            if (res && res.version == version && res.entries instanceof Array)
+                return res;
+        } catch (e) {
+        }
+        return null;
+    }-*/;
+
+    private static native String encodeCache(int version, double timestamp, String etag,
+                                             JsArray<JavaScriptObject> entries) /*-{
+        return JSON.stringify({version: version, timestamp: timestamp, etag: etag, entries: entries});
+    }-*/;
+
+    private static native JavaScriptObject compactEntry(TodoListEntry entry) /*-{
+        var res = {id: entry.id, title: entry.title, created: entry.created, modified: entry.modified,
+                   seq: entry.seq};
+        if (entry.notes)
+            res.notes = entry.notes;
+        if (entry.complete == 1)
+            res.complete = 1;
+        return res;
+    }-*/;
+}
@@ -1,13 +1,12 @@
 package com.oci.example.cloudtodolist.client;
 
 import com.google.gwt.core.client.JavaScriptObject;
-
-import java.util.Comparator;
+import com.oci.example.cloudtodolist.sync.SyncEntry;
 
 /**
  */
 
-class TodoListEntry extends JavaScriptObject {
+class TodoListEntry extends JavaScriptObject implements SyncEntry {
     protected TodoListEntry() {
     }
 
@@ -39,13 +38,13 @@ class TodoListEntry extends JavaScriptObject {
         return this.modified;
     }-*/;
 
-
-    static class CompareCreated implements Comparator<TodoListEntry> {
-
-        public int compare(TodoListEntry e1, TodoListEntry e2) {
-            return (int)(e1.getCreated() - e2.getCreated());
-        }
-    }
+    /**
+     * Returns the sequence number of the server change that last wrote the entry,
+     * or 0 for an entry not yet created on the server
+     */
+    public final native int getSeq() /*-{
+        return this.seq || 0;
+    }-*/;
 }
 
 
@@ -0,0 +1,118 @@
+package com.oci.example.cloudtodolist.client;
+
+import com.google.gwt.event.dom.client.ClickEvent;
+import com.google.gwt.event.dom.client.ClickHandler;
+import com.google.gwt.i18n.client.DateTimeFormat;
+import com.google.gwt.user.client.ui.*;
+
+import java.util.Date;
+
+/**
+ * Dialog to view an entry and edit its title and notes. The dialog is built
+ * once and reused for every entry it shows.
+ *
+ * TodoList only loads this class, and the widgets it uses, behind a split
+ * point the first time an entry is opened, so they aren't part of the
+ * initial download.
+ */
+class TodoListEntryDialog {
+
+    interface Listener {
+        /**
+         * Called when the title or notes of the entry were changed
+         */
+        void onSave(TodoListEntry entry, String title, String notes);
+    }
+
+    private final Listener listener;
+    private final DialogBox dialogBox = new DialogBox();
+    private final TextBox titleText = new TextBox();
+    private final TextArea notesText = new TextArea();
+    private final InlineLabel createdLabel = new InlineLabel();
+    private final InlineLabel modifiedLabel = new InlineLabel();
+    private final DateTimeFormat dateTimeFmt = DateTimeFormat.getFormat(DateTimeFormat.PredefinedFormat.DATE_TIME_SHORT);
+
+    private TodoListEntry entry = null;
+
+    TodoListEntryDialog(Listener listener) {
+        this.listener = listener;
+
+        dialogBox.setText("Entry");
+
+        // Enable animation.
+        dialogBox.setAnimationEnabled(true);
+
+        // Enable glass background.
+        dialogBox.setGlassEnabled(true);
+        dialogBox.setModal(true);
+
+        VerticalPanel dialogContents = new VerticalPanel();
+        dialogContents.setSpacing(4);
+
+        dialogContents.add(new InlineLabel("Title:"));
+        titleText.setStyleName("editEntryDialogText");
+        dialogContents.add(titleText);
+
+        dialogContents.add(new InlineLabel("Notes:"));
+        notesText.setStyleName("editEntryDialogText");
+        notesText.setVisibleLines(10);
+        notesText.setCharacterWidth(40);
+        dialogContents.add(notesText);
+
+        createdLabel.setStyleName("entryDateText");
+        dialogContents.add(createdLabel);
+
+        modifiedLabel.setStyleName("entryDateText");
+        dialogContents.add(modifiedLabel);
+
+        HorizontalPanel buttonPanel = new HorizontalPanel();
+
+        // Add OK Button
+        Button okButton = new Button("OK", new ClickHandler() {
+            @Override
+            public void onClick(ClickEvent event) {
+                save();
+                dialogBox.hide();
+            }
+        });
+
+        Button cancelButton = new Button("Cancel", new ClickHandler() {
+            @Override
+            public void onClick(ClickEvent event) {
+                dialogBox.hide();
+            }
+        });
+
+        buttonPanel.add(okButton);
+        buttonPanel.add(cancelButton);
+        buttonPanel.setSpacing(5);
+        dialogContents.add(buttonPanel);
+
+        dialogBox.setWidget(dialogContents);
+        dialogContents.setCellHorizontalAlignment(buttonPanel, HasHorizontalAlignment.ALIGN_LEFT);
+    }
+
+    public void show(TodoListEntry entry) {
+        this.entry = entry;
+
+        titleText.setText(entry.getTitle());
+        notesText.setText(entry.getNotes());
+
+        Date created = new Date((long) (entry.getCreated() * 1000));
+        Date modified = new Date((long) (entry.getModified() * 1000));
+        createdLabel.setText("Created: " + dateTimeFmt.format(created));
+        modifiedLabel.setText("Last Modified: " + dateTimeFmt.format(modified));
+
+        dialogBox.center();
+    }
+
+    private void save() {
+        String newTitle = titleText.getText();
+        String newNotes = notesText.getText();
+
+        if (!newTitle.equals(entry.getTitle())
+                || !newNotes.equals(entry.getNotes())) {
+            listener.onSave(entry, newTitle, newNotes);
+        }
+    }
+}
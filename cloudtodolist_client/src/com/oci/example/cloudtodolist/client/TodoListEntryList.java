@@ -2,6 +2,7 @@ package com.oci.example.cloudtodolist.client;
 
 import com.google.gwt.core.client.JavaScriptObject;
 import com.google.gwt.core.client.JsArray;
+import com.google.gwt.core.client.JsArrayInteger;
 
 class TodoListEntryList extends JavaScriptObject {
     protected TodoListEntryList() {
@@ -15,6 +16,21 @@ class TodoListEntryList extends JavaScriptObject {
         return this.entries;
     }-*/;
 
+    /**
+     * Returns the ids of all entries that aren't deleted, which the server
+     * only includes in a list compacted after it purged deleted entries
+     */
+    public final native JsArrayInteger getLive() /*-{
+        return this.live || null;
+    }-*/;
+
+    /**
+     * Returns the ETag stored with a cached entry list, if any
+     */
+    public final native String getETag() /*-{
+        return this.etag || null;
+    }-*/;
+
 }
 
 
@@ -0,0 +1,224 @@
+package com.oci.example.cloudtodolist.client;
+
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+import com.google.gwt.core.client.Scheduler;
+
+import java.util.logging.Logger;
+
+/**
+ * Decodes the JSON responses of the todo list server into their overlay types,
+ * using the browser's native JSON parser. The fields the overlays read are
+ * checked, and entries with missing or mistyped fields are dropped.
+ *
+ * Entry lists in the compact format, which the client requests with the
+ * COMPACT_CONTENT_TYPE Accept header, are expanded into entry objects.
+ *
+ * Large entry lists are checked and handed over in chunks of CHUNK_SIZE
+ * entries, yielding to the event loop between chunks so the UI stays responsive.
+ * The time taken to decode large lists is logged.
+ */
+class TodoListJsonDecoder {
+
+    interface EntryListHandler {
+        /**
+         * Called with each valid entry of the list
+         */
+        void onEntry(TodoListEntry entry);
+
+        /**
+         * Called once all entries have been handed to onEntry, with the time spent
+         * decoding, not counting the time between chunks or spent in the handler
+         */
+        void onComplete(TodoListEntryList entryList, double decodeMillis);
+    }
+
+    static final int CHUNK_SIZE = 500;
+
+    static final String COMPACT_CONTENT_TYPE = "application/x-todolist-compact+json";
+
+    private static final Logger logger = Logger.getLogger("TodoListJsonDecoder");
+
+    private TodoListJsonDecoder() {
+    }
+
+    /**
+     * Decodes an entry list, replacing invalid entries with null so the
+     * remaining entries keep their positions
+     *
+     * @throws IllegalArgumentException if the json is not an entry list
+     */
+    public static TodoListEntryList decodeEntryList(String json) {
+        double start = Duration.currentTimeMillis();
+        TodoListEntryList entryList = parseEntryList(json);
+        JsArray<TodoListEntry> entries = entryList.getEntries();
+        for (int i = 0; i < entries.length(); i++) {
+            if (entries.get(i) != null && !isValidEntry(entries.get(i)))
+                setNull(entries, i);
+        }
+        logDecodeTime(entries.length(), Duration.currentTimeMillis() - start);
+        return entryList;
+    }
+
+    /**
+     * Decodes an entry list, handing each valid entry to the handler. Lists
+     * larger than CHUNK_SIZE are handled across several event loop turns.
+     *
+     * @throws IllegalArgumentException if the json is not an entry list
+     */
+    public static void decodeEntryList(String json, final EntryListHandler handler) {
+        final double start = Duration.currentTimeMillis();
+        final TodoListEntryList entryList = parseEntryList(json);
+        final JsArray<TodoListEntry> entries = entryList.getEntries();
+        final double parseMillis = Duration.currentTimeMillis() - start;
+
+        Scheduler.RepeatingCommand decodeChunk = new Scheduler.RepeatingCommand() {
+            private int next = 0;
+            private double chunkMillis = 0;
+            private double handlerMillis = 0;
+
+            @Override
+            public boolean execute() {
+                double chunkStart = Duration.currentTimeMillis();
+                int end = Math.min(next + CHUNK_SIZE, entries.length());
+                for (; next < end; next++) {
+                    TodoListEntry entry = entries.get(next);
+                    if (entry != null && isValidEntry(entry)) {
+                        double handlerStart = Duration.currentTimeMillis();
+                        handler.onEntry(entry);
+                        handlerMillis += Duration.currentTimeMillis() - handlerStart;
+                    }
+                }
+                chunkMillis += Duration.currentTimeMillis() - chunkStart;
+
+                if (next < entries.length())
+                    return true;
+
+                double decodeMillis = parseMillis + chunkMillis - handlerMillis;
+                logDecodeTime(entries.length(), decodeMillis);
+                handler.onComplete(entryList, decodeMillis);
+                return false;
+            }
+        };
+
+        if (entries.length() <= CHUNK_SIZE)
+            decodeChunk.execute();
+        else
+            Scheduler.get().scheduleIncremental(decodeChunk);
+    }
+
+    /**
+     * Decodes an update channel message, which is either a single entry
+     * or, in the compact format, an entry list
+     *
+     * @throws IllegalArgumentException if the json is not an entry or entry list
+     */
+    public static JsArray<TodoListEntry> decodeUpdate(String json) {
+        JavaScriptObject value = parse(json);
+        if (value != null && isValidEntryList(value)) {
+            JsArray<TodoListEntry> entries = JavaScriptObject.createArray().cast();
+            JsArray<TodoListEntry> listEntries = value.<TodoListEntryList>cast().getEntries();
+            for (int i = 0; i < listEntries.length(); i++) {
+                if (listEntries.get(i) != null && isValidEntry(listEntries.get(i)))
+                    entries.push(listEntries.get(i));
+            }
+            return entries;
+        }
+
+        if (value == null || !isValidEntry(value.<TodoListEntry>cast()))
+            throw new IllegalArgumentException("Invalid update");
+        JsArray<TodoListEntry> entries = JavaScriptObject.createArray().cast();
+        entries.push(value.<TodoListEntry>cast());
+        return entries;
+    }
+
+    /**
+     * Decodes the token of an update channel response
+     *
+     * @throws IllegalArgumentException if the json has no token
+     */
+    public static String decodeUpdateChannelToken(String json) {
+        String token = getToken(parse(json));
+        if (token == null)
+            throw new IllegalArgumentException("Invalid update channel response");
+        return token;
+    }
+
+    private static TodoListEntryList parseEntryList(String json) {
+        JavaScriptObject value = parse(json);
+        if (value == null || !isValidEntryList(value))
+            throw new IllegalArgumentException("Invalid entry list");
+        return value.cast();
+    }
+
+    private static void logDecodeTime(int entryCount, double millis) {
+        if (entryCount >= CHUNK_SIZE) {
+            logger.info("Decoded " + entryCount + " entries in " + (long) millis + "ms, "
+                    + (long) (millis * 1000 / entryCount) + "ms per 1000 entries");
+        }
+    }
+
+    private static native JavaScriptObject parse(String json) /*-{
+        try {
+            var res = JSON.parse(json);
+            if (res === null || typeof res != 'object')
+                return null;
+            if (res.fields instanceof Array && res.entries instanceof Array)
+                return @com.oci.example.cloudtodolist.client.TodoListJsonDecoder::expandCompact(Lcom/google/gwt/core/client/JavaScriptObject;)(res);
+            return res;
+        } catch (e) {
+            return null;
+        }
+    }-*/;
+
+    /**
+     * Expands a compact entry list, where each entry is an array of the values
+     * of 'fields' with trailing defaults omitted, and deleted entries are
+     * only listed by id, modified time and sequence number
+     */
+    private static native JavaScriptObject expandCompact(JavaScriptObject value) /*-{
+        var fields = value.fields;
+        var rows = value.entries;
+        var entries = new Array(rows.length);
+        for (var i = 0; i < rows.length; i++) {
+            var row = rows[i];
+            if (!(row instanceof Array)) {
+                entries[i] = null;
+                continue;
+            }
+            var entry = {notes: null, complete: 0, deleted: 0};
+            for (var j = 0; j < row.length && j < fields.length; j++)
+                entry[fields[j]] = row[j];
+            entries[i] = entry;
+        }
+
+        var deleted = value.deleted instanceof Array ? value.deleted : [];
+        for (var k = 0; k < deleted.length; k++) {
+            entries.push({id: deleted[k][0], modified: deleted[k][1], seq: deleted[k][2], title: "",
+                          notes: null, created: 0, complete: 0, deleted: 1});
+        }
+        return {timestamp: value.timestamp, entries: entries, live: value.live};
+    }-*/;
+
+    private static native boolean isValidEntryList(JavaScriptObject value) /*-{
+        return typeof value.timestamp == 'number' && value.entries instanceof Array;
+    }-*/;
+
+    private static native boolean isValidEntry(TodoListEntry entry) /*-{
+        return typeof entry == 'object'
+            && typeof entry.id == 'number'
+            && typeof entry.title == 'string'
+            && (entry.notes == null || typeof entry.notes == 'string')
+            && typeof entry.created == 'number'
+            && typeof entry.modified == 'number';
+    }-*/;
+
+    private static native void setNull(JsArray<TodoListEntry> entries, int index) /*-{
+        entries[index] = null;
+    }-*/;
+
+    private static native String getToken(JavaScriptObject value) /*-{
+        return (value && typeof value.token == 'string') ? value.token : null;
+    }-*/;
+}
@@ -0,0 +1,164 @@
+package com.oci.example.cloudtodolist.client;
+
+import com.google.gwt.user.client.Timer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects client timings, in milliseconds, into histograms with fixed bucket
+ * bounds, so recording a timing is a bucket search and a counter increment.
+ *
+ * Timings are recorded per metric name and per list size bucket, the smallest
+ * power of ten, from 10 up, that is at least the number of entries in the list
+ * when the timing was recorded. The histograms are sent to the server, and
+ * cleared, every FLUSH_INTERVAL_MS, and sent as a beacon when the page unloads.
+ *
+ * The encoded histograms map each bucket's upper bound to its count, e.g.
+ *  {"histograms":[{"name":"render","size":100,"counts":{"5":3,"10":1}}, ...]}
+ * Timings above the last bound are counted in the last bucket.
+ */
+class TodoListMetrics {
+
+    interface Sender {
+        /**
+         * Sends the encoded histograms to the server
+         */
+        void sendMetrics(String json);
+    }
+
+    static final int FLUSH_INTERVAL_MS = 60000;
+
+    private static final int[] BOUNDS = {1, 2, 3, 5, 7, 10, 15, 20, 30, 50, 70, 100, 150, 200, 300, 500, 700,
+            1000, 1500, 2000, 3000, 5000, 7000, 10000, 15000, 20000, 30000, 60000};
+
+    private final Sender sender;
+    private final Map<String, Histogram> histograms = new HashMap<String, Histogram>();
+    private int listSizeBucket = 10;
+
+    private final Timer flushTimer = new Timer() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private static class Histogram {
+        final String name;
+        final int sizeBucket;
+        final int[] counts = new int[BOUNDS.length];
+
+        Histogram(String name, int sizeBucket) {
+            this.name = name;
+            this.sizeBucket = sizeBucket;
+        }
+    }
+
+    TodoListMetrics(Sender sender) {
+        this.sender = sender;
+    }
+
+    /**
+     * Starts sending the histograms every FLUSH_INTERVAL_MS
+     */
+    public void start() {
+        flushTimer.scheduleRepeating(FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * Sets the number of entries in the list, which buckets the timings recorded after it
+     */
+    public void setListSize(int listSize) {
+        int sizeBucket = 10;
+        while (sizeBucket < listSize)
+            sizeBucket *= 10;
+        listSizeBucket = sizeBucket;
+    }
+
+    public void record(String name, double millis) {
+        String key = name + "|" + listSizeBucket;
+        Histogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = new Histogram(name, listSizeBucket);
+            histograms.put(key, histogram);
+        }
+        histogram.counts[findBucket(millis)]++;
+    }
+
+    /**
+     * Sends and clears the histograms, if any timings were recorded
+     */
+    public void flush() {
+        if (!histograms.isEmpty())
+            sender.sendMetrics(encode());
+    }
+
+    /**
+     * Sends and clears the histograms with the browser's beacon API, which
+     * delivers them even though the page is unloading. Browsers without the
+     * beacon API send them as a regular request, which may not complete.
+     */
+    public void flushBeacon(String url) {
+        if (histograms.isEmpty())
+            return;
+
+        String json = encode();
+        if (!sendBeacon(url, json))
+            sender.sendMetrics(json);
+    }
+
+    /**
+     * Returns the index of the first bucket whose bound is at least the timing
+     */
+    private static int findBucket(double millis) {
+        int low = 0;
+        int high = BOUNDS.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BOUNDS[mid] < millis)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Encodes the histograms, and clears them
+     */
+    private String encode() {
+        StringBuilder json = new StringBuilder("{\"histograms\":[");
+        boolean firstHistogram = true;
+        for (Histogram histogram : histograms.values()) {
+            if (!firstHistogram)
+                json.append(',');
+            firstHistogram = false;
+
+            // Metric names are constants and endpoint paths, which need no escaping
+            json.append("{\"name\":\"").append(histogram.name)
+                    .append("\",\"size\":").append(histogram.sizeBucket)
+                    .append(",\"counts\":{");
+            boolean firstCount = true;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                if (histogram.counts[i] == 0)
+                    continue;
+                if (!firstCount)
+                    json.append(',');
+                firstCount = false;
+                json.append('"').append(BOUNDS[i]).append("\":").append(histogram.counts[i]);
+            }
+            json.append("}}");
+        }
+        json.append("]}");
+
+        histograms.clear();
+        return json.toString();
+    }
+
+    private static native boolean sendBeacon(String url, String data) /*-{
+        var navigator = $wnd.navigator;
+        if (!navigator || !navigator.sendBeacon)
+            return false;
+        return navigator.sendBeacon(url, data);
+    }-*/;
+}
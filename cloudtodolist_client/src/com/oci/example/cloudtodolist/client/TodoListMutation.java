@@ -0,0 +1,93 @@
+package com.oci.example.cloudtodolist.client;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+
+/**
+ * A single operation of an entry batch request. An operation with an id
+ * updates that entry, one without creates a new entry. Only the fields that
+ * have been set are sent.
+ *
+ * Creates carry a negative client id, which identifies the new entry locally
+ * until the server has assigned its id. The server ignores it.
+ */
+class TodoListMutation extends JavaScriptObject {
+    protected TodoListMutation() {
+    }
+
+    public static native TodoListMutation createUpdate(int id) /*-{
+        return {id: id};
+    }-*/;
+
+    public static native TodoListMutation createEntry(int clientId, String title) /*-{
+        return {cid: clientId, title: title};
+    }-*/;
+
+    public final native boolean isUpdate() /*-{
+        return this.id !== undefined;
+    }-*/;
+
+    /**
+     * Returns the id of the entry the operation applies to, which is
+     * the client id for creates
+     */
+    public final native int getEntryId() /*-{
+        return this.id !== undefined ? this.id : this.cid;
+    }-*/;
+
+    public final native void setId(int id) /*-{
+        this.id = id;
+    }-*/;
+
+    /**
+     * Sets the client id of a create, e.g. when another tab's create is adopted
+     */
+    public final native void setClientId(int clientId) /*-{
+        this.cid = clientId;
+    }-*/;
+
+    public final native void setTitle(String title) /*-{
+        this.title = title;
+    }-*/;
+
+    public final native void setNotes(String notes) /*-{
+        this.notes = notes;
+    }-*/;
+
+    public final native void setComplete(boolean complete) /*-{
+        this.complete = complete ? 1 : 0;
+    }-*/;
+
+    /**
+     * Returns a copy of the entry with the fields of this operation set
+     */
+    public final native TodoListEntry applyTo(TodoListEntry entry) /*-{
+        var res = {};
+        for (var field in entry)
+            res[field] = entry[field];
+        if (this.title)
+            res.title = this.title;
+        if (this.notes !== undefined)
+            res.notes = this.notes || null;
+        if (this.complete !== undefined)
+            res.complete = this.complete;
+        return res;
+    }-*/;
+
+    /**
+     * Returns the local entry for a create, identified by its client id. The entry
+     * has no modified time, so any copy received from the server replaces it.
+     */
+    public final native TodoListEntry toEntry(double created) /*-{
+        return {id: this.cid, title: this.title, notes: this.notes || null,
+                complete: this.complete || 0, created: created, modified: 0, deleted: 0};
+    }-*/;
+
+    /**
+     * Encodes a list of operations as the body of a batch request. The batch id
+     * lets the server recognize a batch that is resent after a failure.
+     */
+    public static native String encodeBatch(String batchId, JsArray<TodoListMutation> mutations) /*-{
+        return JSON.stringify({batch: batchId, ops: mutations});
+    }-*/;
+}
@@ -0,0 +1,526 @@
+package com.oci.example.cloudtodolist.client;
+
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+import com.google.gwt.event.logical.shared.CloseEvent;
+import com.google.gwt.event.logical.shared.CloseHandler;
+import com.google.gwt.storage.client.Storage;
+import com.google.gwt.user.client.Random;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.Window;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects entry edits and sends them to the server as a single batch request.
+ * Edits made within BATCH_WINDOW_MS of the first pending edit go out together,
+ * and repeated edits of the same entry are merged into one operation, with the
+ * last value of each field winning.
+ *
+ * Only one batch is in flight at a time, so batches are applied by the
+ * server in the order the edits were made.
+ *
+ * The queue is a write-ahead log of the edits the server hasn't acknowledged.
+ * It is persisted to local storage on every change, and a batch that fails is
+ * resent, with the same batch id, after a growing delay. Until an edit is
+ * acknowledged, rebase() applies it to any copy of the entry received from
+ * the server, so the display shows the edit as soon as it is made.
+ *
+ * Every tab keeps its own log, under a key of its own, so tabs never send
+ * or overwrite each other's edits. A tab marks its log closed when it closes,
+ * and otherwise refreshes the log's heartbeat every LOG_REFRESH_MS. The leader
+ * tab adopts the logs that are closed, or whose heartbeat is ABANDONED_LOG_MS
+ * old, and sends their batches with the batch ids they were first sent with.
+ * Pending edits get their batch id when the first of them is queued, so a
+ * tab and the leader that adopted its log send them under the same id. The
+ * timeout is long, since browsers may run the timers of background tabs
+ * only once a minute.
+ *
+ * A tab that was frozen for longer may find its log adopted when it resumes.
+ * It then drops its edits, which the leader sends, except for a batch still
+ * in flight, which the server applies once, by its batch id.
+ */
+class TodoListMutationQueue {
+
+    interface Sender {
+        /**
+         * Sends the encoded batch. The sender must call onBatchSuccess or
+         * onBatchFailure once the request has finished.
+         */
+        void sendBatch(String json);
+
+        /**
+         * Called when the leader tab adopted this tab's log, with the client ids
+         * of the created entries dropped from this tab. The leader sends them.
+         */
+        void onLogClaimed(List<Integer> clientIds);
+    }
+
+    static final int BATCH_WINDOW_MS = 250;
+    private static final int MIN_RETRY_DELAY_MS = 1000;
+    private static final int MAX_RETRY_DELAY_MS = 60000;
+
+    private static final int LOG_REFRESH_MS = 60000;
+    private static final int ABANDONED_LOG_MS = 5 * LOG_REFRESH_MS;
+
+    // Bump when the stored format changes
+    private static final int VERSION = 2;
+    private static final String KEY_PREFIX = "todolist.mutations.";
+
+    /**
+     * A batch of operations, sent, or about to be sent, with its batch id
+     */
+    private static class Batch {
+        final String id;
+        final JsArray<TodoListMutation> mutations;
+        final Map<Integer, TodoListMutation> mutationMap = new HashMap<Integer, TodoListMutation>();
+
+        Batch(String id, JsArray<TodoListMutation> mutations) {
+            this.id = id;
+            this.mutations = mutations;
+            for (int i = 0; i < mutations.length(); i++)
+                mutationMap.put(mutations.get(i).getEntryId(), mutations.get(i));
+        }
+    }
+
+    private final Sender sender;
+    private final Storage storage = Storage.getLocalStorageIfSupported();
+
+    // Logs of the user's other tabs, and of earlier versions, which kept one log per user
+    private final String logKeyPrefix;
+    private final String legacyKey;
+    private final String key;
+
+    private final Map<Integer, TodoListMutation> pendingMutationMap = new HashMap<Integer, TodoListMutation>();
+    private JsArray<TodoListMutation> pendingMutations = JavaScriptObject.createArray().cast();
+    private String pendingBatchId = null;
+
+    // Batches to send in order, the first of which is in flight while inFlight is set
+    private final List<Batch> batches = new ArrayList<Batch>();
+    private boolean inFlight = false;
+
+    // Ids the server assigned to the entries created by this tab, by client id
+    private final Map<Integer, Integer> acknowledgedIds = new HashMap<Integer, Integer>();
+
+    private int nextClientId = -1;
+    private int retryDelay = 0;
+    private boolean scheduled = false;
+
+    // Set while this tab's log is in storage, so a log missing then was adopted by the leader
+    private boolean logWritten = false;
+
+    private final Timer sendTimer = new Timer() {
+        @Override
+        public void run() {
+            scheduled = false;
+            send();
+        }
+    };
+
+    private final Timer refreshTimer = new Timer() {
+        @Override
+        public void run() {
+            save();
+        }
+    };
+
+    TodoListMutationQueue(String userId, Sender sender) {
+        this.sender = sender;
+        this.legacyKey = KEY_PREFIX + userId;
+        this.logKeyPrefix = legacyKey + ".";
+        this.key = logKeyPrefix + newId();
+
+        if (storage != null) {
+            Window.addCloseHandler(new CloseHandler<Window>() {
+                @Override
+                public void onClose(CloseEvent<Window> event) {
+                    // Lets the leader adopt the edits left unacknowledged right away
+                    if (!isEmpty() && !isClaimed())
+                        writeLog(0);
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues a new entry and returns the local copy of it,
+     * identified by a negative client id
+     */
+    public TodoListEntry createEntry(String title) {
+        dropClaimedLog();
+        TodoListMutation mutation = TodoListMutation.createEntry(nextClientId--, title);
+        queue(mutation);
+        changed();
+        return mutation.toEntry(Duration.currentTimeMillis() / 1000);
+    }
+
+    public void setComplete(int id, boolean complete) {
+        dropClaimedLog();
+        getPendingMutation(id).setComplete(complete);
+        changed();
+    }
+
+    public void setTitleAndNotes(int id, String title, String notes) {
+        dropClaimedLog();
+        TodoListMutation mutation = getPendingMutation(id);
+        mutation.setTitle(title);
+        mutation.setNotes(notes);
+        changed();
+    }
+
+    /**
+     * Returns the id of an entry, which for an entry created by this tab and
+     * since acknowledged is the id the server assigned, rather than its client id
+     */
+    public int getCurrentId(int id) {
+        Integer acknowledgedId = acknowledgedIds.get(id);
+        return acknowledgedId != null ? acknowledgedId : id;
+    }
+
+    /**
+     * Returns the entry with all unacknowledged edits of it applied
+     */
+    public TodoListEntry rebase(TodoListEntry entry) {
+        for (Batch batch : batches) {
+            TodoListMutation mutation = batch.mutationMap.get(entry.getId());
+            if (mutation != null)
+                entry = mutation.applyTo(entry);
+        }
+
+        TodoListMutation pendingMutation = pendingMutationMap.get(entry.getId());
+        if (pendingMutation != null)
+            entry = pendingMutation.applyTo(entry);
+
+        return entry;
+    }
+
+    /**
+     * Returns the local copies of the entries created, but not yet acknowledged
+     */
+    public List<TodoListEntry> getCreatedEntries() {
+        List<TodoListEntry> entries = new ArrayList<TodoListEntry>();
+        double created = Duration.currentTimeMillis() / 1000;
+        for (Batch batch : batches) {
+            for (TodoListMutation mutation : batch.mutationMap.values()) {
+                if (!mutation.isUpdate())
+                    entries.add(mutation.toEntry(created));
+            }
+        }
+        for (TodoListMutation mutation : pendingMutationMap.values()) {
+            if (!mutation.isUpdate())
+                entries.add(mutation.toEntry(created));
+        }
+        return entries;
+    }
+
+    /**
+     * Adopts the logs of the user's tabs that have closed, or stopped refreshing
+     * their heartbeat, so their edits are sent by this tab. Only the leader tab
+     * may adopt logs, so no two tabs send the same edits.
+     *
+     * The creates of the adopted logs get client ids of this tab, so they can't
+     * clash with its own. Returns the ids of the entries with adopted edits.
+     */
+    public List<Integer> adoptAbandonedLogs() {
+        List<Integer> entryIds = new ArrayList<Integer>();
+        if (storage == null)
+            return entryIds;
+
+        double now = Duration.currentTimeMillis();
+        for (String logKey : getLogKeys()) {
+            String json = storage.getItem(logKey);
+            JavaScriptObject log = json != null ? parseLog(json) : null;
+            if (log != null && !logKey.equals(legacyKey) && now - getHeartbeat(log) < ABANDONED_LOG_MS)
+                continue;
+
+            // Claim the log before anything else, so it is adopted once
+            storage.removeItem(logKey);
+            if (log == null)
+                continue;
+
+            Map<Integer, Integer> clientIds = new HashMap<Integer, Integer>();
+            JsArray<TodoListMutation> pending = getPendingMutations(log);
+            for (int i = 0; i < getBatchCount(log); i++)
+                adopt(getBatchId(log, i), getBatchMutations(log, i), clientIds, entryIds);
+            if (pending.length() > 0) {
+                // Logs of earlier versions kept no id for edits that were never sent
+                String pendingBatchId = getPendingBatchId(log);
+                adopt(pendingBatchId != null ? pendingBatchId : newId(), pending, clientIds, entryIds);
+            }
+        }
+
+        if (!entryIds.isEmpty()) {
+            save();
+            schedule(0);
+        }
+        return entryIds;
+    }
+
+    /**
+     * Called by the sender with the entries the server returned for the batch
+     * in flight. Returns the client ids of the entries that were created, which
+     * the server entries replace.
+     */
+    public List<Integer> onBatchSuccess(JsArray<TodoListEntry> entries) {
+        Batch batch = batches.remove(0);
+        inFlight = false;
+
+        List<Integer> clientIds = new ArrayList<Integer>();
+        for (int i = 0; i < batch.mutations.length() && i < entries.length(); i++) {
+            TodoListMutation mutation = batch.mutations.get(i);
+            if (!mutation.isUpdate() && entries.get(i) != null) {
+                clientIds.add(mutation.getEntryId());
+                acknowledgedIds.put(mutation.getEntryId(), entries.get(i).getId());
+                updateClientId(mutation.getEntryId(), entries.get(i).getId());
+            }
+        }
+
+        retryDelay = 0;
+        changed();
+        return clientIds;
+    }
+
+    /**
+     * Called by the sender when the batch in flight failed. Batches that may succeed
+     * later are resent after a delay, others are dropped along with their edits.
+     */
+    public void onBatchFailure(boolean retry) {
+        inFlight = false;
+        if (retry) {
+            retryDelay = Math.min(Math.max(retryDelay * 2, MIN_RETRY_DELAY_MS), MAX_RETRY_DELAY_MS);
+            schedule(retryDelay);
+        } else {
+            batches.remove(0);
+            changed();
+        }
+    }
+
+    private TodoListMutation getPendingMutation(int id) {
+        TodoListMutation mutation = pendingMutationMap.get(id);
+        if (mutation == null) {
+            mutation = TodoListMutation.createUpdate(id);
+            queue(mutation);
+        }
+        return mutation;
+    }
+
+    private void queue(TodoListMutation mutation) {
+        if (pendingMutations.length() == 0)
+            pendingBatchId = newId();
+        pendingMutationMap.put(mutation.getEntryId(), mutation);
+        pendingMutations.push(mutation);
+    }
+
+    /**
+     * Points later edits of a newly created entry at the id the server assigned
+     */
+    private void updateClientId(int clientId, int id) {
+        for (Batch batch : batches)
+            updateClientId(batch.mutationMap, clientId, id);
+        updateClientId(pendingMutationMap, clientId, id);
+    }
+
+    private static void updateClientId(Map<Integer, TodoListMutation> mutationMap, int clientId, int id) {
+        TodoListMutation mutation = mutationMap.remove(clientId);
+        if (mutation != null) {
+            mutation.setId(id);
+            mutationMap.put(id, mutation);
+        }
+    }
+
+    /**
+     * Queues a batch of another tab's log to be sent after the batches of this
+     * tab, pointing the creates, and the edits of them, at client ids of this tab
+     */
+    private void adopt(String batchId, JsArray<TodoListMutation> mutations,
+                       Map<Integer, Integer> clientIds, List<Integer> entryIds) {
+        for (int i = 0; i < mutations.length(); i++) {
+            TodoListMutation mutation = mutations.get(i);
+            if (!mutation.isUpdate()) {
+                clientIds.put(mutation.getEntryId(), nextClientId);
+                mutation.setClientId(nextClientId--);
+            } else if (clientIds.containsKey(mutation.getEntryId())) {
+                mutation.setId(clientIds.get(mutation.getEntryId()));
+            }
+            entryIds.add(mutation.getEntryId());
+        }
+        batches.add(new Batch(batchId, mutations));
+    }
+
+    private boolean isEmpty() {
+        return batches.isEmpty() && pendingMutations.length() == 0;
+    }
+
+    private void changed() {
+        save();
+        schedule(BATCH_WINDOW_MS);
+    }
+
+    private void schedule(int delayMillis) {
+        if (!scheduled && !inFlight) {
+            scheduled = true;
+            sendTimer.schedule(Math.max(delayMillis, 1));
+        }
+    }
+
+    private void send() {
+        if (inFlight || dropClaimedLog())
+            return;
+
+        // A failed batch is resent as is, before any newer edits
+        if (batches.isEmpty()) {
+            if (pendingMutations.length() == 0)
+                return;
+
+            batches.add(new Batch(pendingBatchId, pendingMutations));
+            clearPendingMutations();
+            save();
+        }
+
+        inFlight = true;
+        Batch batch = batches.get(0);
+        sender.sendBatch(TodoListMutation.encodeBatch(batch.id, batch.mutations));
+    }
+
+    private static String newId() {
+        return Long.toString((long) Duration.currentTimeMillis(), 36)
+                + Integer.toString(Math.abs(Random.nextInt()), 36);
+    }
+
+    /**
+     * Writes the log with a fresh heartbeat, or removes it once it is empty
+     */
+    private void save() {
+        if (storage == null || dropClaimedLog())
+            return;
+
+        if (isEmpty()) {
+            refreshTimer.cancel();
+            storage.removeItem(key);
+            logWritten = false;
+            return;
+        }
+
+        writeLog(Duration.currentTimeMillis());
+        refreshTimer.schedule(LOG_REFRESH_MS);
+    }
+
+    private void writeLog(double heartbeat) {
+        JsArray<JavaScriptObject> encodedBatches = JavaScriptObject.createArray().cast();
+        for (Batch batch : batches)
+            encodedBatches.push(encodeBatch(batch.id, batch.mutations));
+
+        try {
+            storage.setItem(key, encodeLog(VERSION, heartbeat, encodedBatches, pendingBatchId, pendingMutations));
+            logWritten = true;
+        } catch (Exception e) {
+            // Storage quota exceeded, the edits are still sent from memory
+        }
+    }
+
+    private boolean isClaimed() {
+        return logWritten && storage.getItem(key) == null;
+    }
+
+    /**
+     * Drops the edits of this tab if the leader adopted its log while the
+     * tab was frozen, keeping only the batch in flight. Returns whether
+     * the log was adopted.
+     */
+    private boolean dropClaimedLog() {
+        if (!isClaimed())
+            return false;
+
+        Batch batchInFlight = inFlight ? batches.remove(0) : null;
+        List<Integer> clientIds = new ArrayList<Integer>();
+        for (TodoListEntry entry : getCreatedEntries())
+            clientIds.add(entry.getId());
+
+        batches.clear();
+        if (batchInFlight != null)
+            batches.add(batchInFlight);
+        clearPendingMutations();
+        logWritten = false;
+        refreshTimer.cancel();
+        sendTimer.cancel();
+        scheduled = false;
+
+        sender.onLogClaimed(clientIds);
+        return true;
+    }
+
+    private void clearPendingMutations() {
+        pendingMutations = JavaScriptObject.createArray().cast();
+        pendingMutationMap.clear();
+        pendingBatchId = null;
+    }
+
+    private List<String> getLogKeys() {
+        List<String> logKeys = new ArrayList<String>();
+        for (int i = 0; i < storage.getLength(); i++) {
+            String logKey = storage.key(i);
+            if (logKey != null && !logKey.equals(key)
+                    && (logKey.equals(legacyKey) || logKey.startsWith(logKeyPrefix)))
+                logKeys.add(logKey);
+        }
+        return logKeys;
+    }
+
+    /**
+     * Parses a log, converting the single in flight batch of the earlier
+     * per user log to a list of batches. Returns null if it is invalid.
+     */
+    private static native JavaScriptObject parseLog(String json) /*-{
+        try {
+            var res = JSON.parse(json);
+            if (!res || !(res.pending instanceof Array))
+                return null;
+            if (res.version == 1) {
+                res.batches = res.batch && res.inFlight ? [{id: res.batch, ops: res.inFlight}] : [];
+                res.heartbeat = 0;
+            }
+            if (res.version <= 2 && res.batches instanceof Array)
+                return res;
+        } catch (e) {
+        }
+        return null;
+    }-*/;
+
+    private static native String encodeLog(int version, double heartbeat, JsArray<JavaScriptObject> batches,
+                                           String pendingBatchId, JsArray<TodoListMutation> pendingMutations) /*-{
+        return JSON.stringify({version: version, heartbeat: heartbeat, batches: batches,
+                               pendingBatch: pendingBatchId, pending: pendingMutations});
+    }-*/;
+
+    private static native JavaScriptObject encodeBatch(String id, JsArray<TodoListMutation> mutations) /*-{
+        return {id: id, ops: mutations};
+    }-*/;
+
+    private static native double getHeartbeat(JavaScriptObject log) /*-{
+        return log.heartbeat || 0;
+    }-*/;
+
+    private static native int getBatchCount(JavaScriptObject log) /*-{
+        return log.batches.length;
+    }-*/;
+
+    private static native String getBatchId(JavaScriptObject log, int index) /*-{
+        return log.batches[index].id;
+    }-*/;
+
+    private static native JsArray<TodoListMutation> getBatchMutations(JavaScriptObject log, int index) /*-{
+        return log.batches[index].ops;
+    }-*/;
+
+    private static native String getPendingBatchId(JavaScriptObject log) /*-{
+        return log.pendingBatch || null;
+    }-*/;
+
+    private static native JsArray<TodoListMutation> getPendingMutations(JavaScriptObject log) /*-{
+        return log.pending;
+    }-*/;
+}
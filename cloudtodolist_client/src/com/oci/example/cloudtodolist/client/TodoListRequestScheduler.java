@@ -0,0 +1,245 @@
+package com.oci.example.cloudtodolist.client;
+
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.http.client.*;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Sends the requests to the server, at most MAX_IN_FLIGHT at a time so that
+ * bursts of requests don't take up all of the browser's connections.
+ *
+ * Requests waiting for a connection are sent in priority order, writes made
+ * by the user first, then reads the user is waiting on, then background
+ * syncs, and in the order they were sent within a priority.
+ *
+ * A request sent with a supersede key replaces the earlier request with the
+ * same key: if it is still queued it is dropped, and if it is in flight it is
+ * cancelled. The callback of a dropped or cancelled request is never called,
+ * so only the response to the latest request is applied.
+ *
+ * The round trip time of each request is recorded in the metrics, per endpoint.
+ */
+class TodoListRequestScheduler {
+
+    enum Priority {
+        WRITE, READ, BACKGROUND
+    }
+
+    static final int MAX_IN_FLIGHT = 4;
+
+    private static final Logger logger = Logger.getLogger("TodoListRequestScheduler");
+
+    private final TodoListMetrics metrics;
+    private final List<ScheduledRequest> queuedRequests = new ArrayList<ScheduledRequest>();
+    private final List<ScheduledRequest> inFlightRequests = new ArrayList<ScheduledRequest>();
+    private final Map<String, Latency> latencies = new HashMap<String, Latency>();
+    private int supersededCount = 0;
+
+    /**
+     * Latency of the completed requests to one endpoint, from when the
+     * request was sent to when its response was received
+     */
+    static class Latency {
+        private int count = 0;
+        private double totalMillis = 0;
+        private double maxMillis = 0;
+        private double lastMillis = 0;
+
+        private void add(double millis) {
+            count++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+            lastMillis = millis;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getAverageMillis() {
+            return count > 0 ? totalMillis / count : 0;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        public double getLastMillis() {
+            return lastMillis;
+        }
+    }
+
+    TodoListRequestScheduler(TodoListMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private class ScheduledRequest implements RequestCallback {
+        final RequestBuilder builder;
+        final String body;
+        final Priority priority;
+        final String supersedeKey;
+        final RequestCallback callback;
+        final String endpoint;
+        final double queuedTime = Duration.currentTimeMillis();
+        double sentTime = 0;
+        Request request = null;
+
+        ScheduledRequest(RequestBuilder builder, String body, Priority priority, String supersedeKey,
+                         RequestCallback callback) {
+            this.builder = builder;
+            this.body = body;
+            this.priority = priority;
+            this.supersedeKey = supersedeKey;
+            this.callback = callback;
+            this.endpoint = getEndpoint(builder);
+        }
+
+        @Override
+        public void onResponseReceived(Request request, Response response) {
+            if (!finish(this))
+                return;
+            try {
+                callback.onResponseReceived(request, response);
+            } finally {
+                dispatch();
+            }
+        }
+
+        @Override
+        public void onError(Request request, Throwable e) {
+            if (!finish(this))
+                return;
+            try {
+                callback.onError(request, e);
+            } finally {
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Queues the request, and sends it as soon as a connection is free
+     *
+     * @param body         request body, or null if it has none
+     * @param supersedeKey key of the requests this one replaces, or null
+     */
+    public void send(RequestBuilder builder, String body, Priority priority, String supersedeKey,
+                     RequestCallback callback) {
+        if (supersedeKey != null)
+            supersede(supersedeKey);
+
+        queuedRequests.add(new ScheduledRequest(builder, body, priority, supersedeKey, callback));
+        dispatch();
+    }
+
+    /**
+     * Returns the number of requests waiting for a connection
+     */
+    public int getQueueDepth() {
+        return queuedRequests.size();
+    }
+
+    public int getInFlightCount() {
+        return inFlightRequests.size();
+    }
+
+    /**
+     * Returns the number of requests dropped or cancelled by a later request
+     */
+    public int getSupersededCount() {
+        return supersededCount;
+    }
+
+    /**
+     * Returns the latency of the requests to each endpoint, keyed by method and path
+     */
+    public Map<String, Latency> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    private void supersede(String supersedeKey) {
+        for (Iterator<ScheduledRequest> it = queuedRequests.iterator(); it.hasNext(); ) {
+            if (supersedeKey.equals(it.next().supersedeKey)) {
+                it.remove();
+                supersededCount++;
+            }
+        }
+        for (Iterator<ScheduledRequest> it = inFlightRequests.iterator(); it.hasNext(); ) {
+            ScheduledRequest scheduled = it.next();
+            if (supersedeKey.equals(scheduled.supersedeKey)) {
+                it.remove();
+                supersededCount++;
+                if (scheduled.request != null)
+                    scheduled.request.cancel();
+            }
+        }
+    }
+
+    private void dispatch() {
+        while (inFlightRequests.size() < MAX_IN_FLIGHT && !queuedRequests.isEmpty()) {
+            ScheduledRequest scheduled = takeNext();
+            inFlightRequests.add(scheduled);
+            scheduled.sentTime = Duration.currentTimeMillis();
+            try {
+                scheduled.request = scheduled.builder.sendRequest(scheduled.body, scheduled);
+            } catch (RequestException e) {
+                inFlightRequests.remove(scheduled);
+                scheduled.callback.onError(null, e);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the first queued request of the highest priority
+     */
+    private ScheduledRequest takeNext() {
+        ScheduledRequest next = null;
+        for (ScheduledRequest scheduled : queuedRequests) {
+            if (next == null || scheduled.priority.ordinal() < next.priority.ordinal())
+                next = scheduled;
+        }
+        queuedRequests.remove(next);
+        return next;
+    }
+
+    /**
+     * Records the latency of a completed request, returns false if it was superseded
+     */
+    private boolean finish(ScheduledRequest scheduled) {
+        if (!inFlightRequests.remove(scheduled))
+            return false;
+
+        double now = Duration.currentTimeMillis();
+        double millis = now - scheduled.sentTime;
+        Latency latency = latencies.get(scheduled.endpoint);
+        if (latency == null) {
+            latency = new Latency();
+            latencies.put(scheduled.endpoint, latency);
+        }
+        latency.add(millis);
+        metrics.record("request " + scheduled.endpoint, millis);
+
+        logger.fine(scheduled.endpoint + " took " + (long) millis + "ms, queued "
+                + (long) (scheduled.sentTime - scheduled.queuedTime) + "ms, "
+                + queuedRequests.size() + " queued");
+        return true;
+    }
+
+    /**
+     * Returns the method and path of the request, without the host or query
+     */
+    private static String getEndpoint(RequestBuilder builder) {
+        String url = builder.getUrl();
+        int query = url.indexOf('?');
+        if (query >= 0)
+            url = url.substring(0, query);
+        int host = url.indexOf("//");
+        if (host >= 0) {
+            int path = url.indexOf('/', host + 2);
+            url = path >= 0 ? url.substring(path) : "/";
+        }
+        return builder.getHTTPMethod() + " " + url;
+    }
+}
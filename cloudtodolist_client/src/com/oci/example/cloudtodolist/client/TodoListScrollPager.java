@@ -0,0 +1,65 @@
+package com.oci.example.cloudtodolist.client;
+
+import com.google.gwt.event.dom.client.ScrollEvent;
+import com.google.gwt.event.dom.client.ScrollHandler;
+import com.google.gwt.user.cellview.client.AbstractPager;
+import com.google.gwt.user.client.ui.ScrollPanel;
+import com.google.gwt.user.client.ui.Widget;
+import com.google.gwt.view.client.HasRows;
+
+/**
+ * Pager that places its display in a scroll panel and only asks the display
+ * for the first rows of the list.  More rows are added to the visible range
+ * as the user scrolls near the bottom, so the number of rendered rows depends
+ * on how far the user has scrolled rather than on the size of the list.
+ */
+class TodoListScrollPager extends AbstractPager {
+
+    // Number of rows rendered initially, and added each time the bottom is reached
+    static final int PAGE_INCREMENT = 50;
+
+    // Distance, in pixels, from the bottom at which more rows are added
+    private static final int SCROLL_THRESHOLD = 100;
+
+    private final ScrollPanel scrollPanel = new ScrollPanel();
+    private int lastScrollPosition = 0;
+
+    TodoListScrollPager() {
+        initWidget(scrollPanel);
+        scrollPanel.getElement().setTabIndex(-1);
+
+        scrollPanel.addScrollHandler(new ScrollHandler() {
+            @Override
+            public void onScroll(ScrollEvent event) {
+                int oldScrollPosition = lastScrollPosition;
+                lastScrollPosition = scrollPanel.getVerticalScrollPosition();
+
+                // Only grow the range when scrolling down
+                if (lastScrollPosition <= oldScrollPosition)
+                    return;
+
+                HasRows display = getDisplay();
+                if (display == null)
+                    return;
+
+                int maxScrollPosition = scrollPanel.getWidget().getOffsetHeight()
+                        - scrollPanel.getOffsetHeight();
+                if (lastScrollPosition >= maxScrollPosition - SCROLL_THRESHOLD) {
+                    int length = display.getVisibleRange().getLength();
+                    if (length < display.getRowCount())
+                        display.setVisibleRange(0, length + PAGE_INCREMENT);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setDisplay(HasRows display) {
+        scrollPanel.setWidget((Widget) display);
+        super.setDisplay(display);
+    }
+
+    @Override
+    protected void onRangeOrRowCountChanged() {
+    }
+}
@@ -0,0 +1,135 @@
+package com.oci.example.cloudtodolist.client;
+
+import java.util.*;
+
+/**
+ * Inverted index from the words of the entries' titles and notes to the
+ * ids of the entries containing them, kept up to date one entry at a time.
+ *
+ * A query matches the entries that have, for each word of the query, a word
+ * starting with it. The words are kept sorted, so all the words starting with
+ * a query word are one contiguous range of the index.
+ */
+class TodoListSearchIndex {
+
+    private static final String[] NO_WORDS = new String[0];
+
+    private final TreeMap<String, Set<Integer>> wordEntries = new TreeMap<String, Set<Integer>>();
+    private final Map<Integer, Set<String>> entryWords = new HashMap<Integer, Set<String>>();
+
+    /**
+     * Returns the words of a query, or of the text of an entry
+     */
+    public static String[] parseWords(String text) {
+        if (text == null)
+            return NO_WORDS;
+
+        List<String> words = new ArrayList<String>();
+        for (String word : text.toLowerCase().split("[^a-z0-9\\u00c0-\\uffff]+")) {
+            if (word.length() > 0)
+                words.add(word);
+        }
+        return words.toArray(NO_WORDS);
+    }
+
+    /**
+     * Indexes the entry, or reindexes it if an older copy was indexed
+     */
+    public void put(TodoListEntry entry) {
+        Set<String> words = new HashSet<String>();
+        words.addAll(Arrays.asList(parseWords(entry.getTitle())));
+        words.addAll(Arrays.asList(parseWords(entry.getNotes())));
+
+        Set<String> oldWords = entryWords.put(entry.getId(), words);
+        if (oldWords != null && oldWords.equals(words))
+            return;
+
+        if (oldWords != null) {
+            for (String word : oldWords) {
+                if (!words.contains(word))
+                    removeWord(word, entry.getId());
+            }
+        }
+
+        for (String word : words) {
+            if (oldWords != null && oldWords.contains(word))
+                continue;
+
+            Set<Integer> ids = wordEntries.get(word);
+            if (ids == null) {
+                ids = new HashSet<Integer>();
+                wordEntries.put(word, ids);
+            }
+            ids.add(entry.getId());
+        }
+    }
+
+    public void remove(int id) {
+        Set<String> words = entryWords.remove(id);
+        if (words == null)
+            return;
+
+        for (String word : words)
+            removeWord(word, id);
+    }
+
+    /**
+     * Returns the ids of the entries matching all the query words
+     */
+    public Set<Integer> search(String[] queryWords) {
+        Set<Integer> result = null;
+        for (String queryWord : queryWords) {
+            Set<Integer> ids = new HashSet<Integer>();
+            for (Map.Entry<String, Set<Integer>> word : wordEntries.tailMap(queryWord).entrySet()) {
+                if (!word.getKey().startsWith(queryWord))
+                    break;
+                if (result == null)
+                    ids.addAll(word.getValue());
+                else {
+                    // Only the ids matching the previous query words can match
+                    for (int id : word.getValue()) {
+                        if (result.contains(id))
+                            ids.add(id);
+                    }
+                }
+            }
+
+            result = ids;
+            if (result.isEmpty())
+                break;
+        }
+        return result != null ? result : new HashSet<Integer>(entryWords.keySet());
+    }
+
+    /**
+     * Returns whether the indexed entry with the specified id matches all the query words
+     */
+    public boolean matches(int id, String[] queryWords) {
+        Set<String> words = entryWords.get(id);
+        if (words == null)
+            return queryWords.length == 0;
+
+        for (String queryWord : queryWords) {
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(queryWord)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    private void removeWord(String word, int id) {
+        Set<Integer> ids = wordEntries.get(word);
+        if (ids == null)
+            return;
+
+        ids.remove(id);
+        if (ids.isEmpty())
+            wordEntries.remove(word);
+    }
+}
@@ -0,0 +1,244 @@
+package com.oci.example.cloudtodolist.client;
+
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.event.logical.shared.CloseEvent;
+import com.google.gwt.event.logical.shared.CloseHandler;
+import com.google.gwt.storage.client.Storage;
+import com.google.gwt.storage.client.StorageEvent;
+import com.google.gwt.user.client.Random;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.Window;
+
+/**
+ * Elects one tab, out of all the tabs the user has open, to own the update
+ * channel. The leader keeps a heartbeat in local storage and rebroadcasts the
+ * channel messages it receives to the other tabs through a second storage key,
+ * which the other tabs see as storage events.
+ *
+ * When the leader closes it removes its heartbeat, and another tab takes over
+ * right away. If the leader goes away without removing it, another tab takes
+ * over once the heartbeat is LEADER_TIMEOUT_MS old. Browsers may run the timers
+ * of background tabs only once a minute, so the timeout is a few minutes, and
+ * a hidden leader marks its heartbeat hidden instead, for the next visible tab
+ * to take over right away. A leader steps down as soon as it finds another
+ * tab's id in the heartbeat.
+ *
+ * Without local storage, every tab is its own leader.
+ */
+class TodoListTabLeader {
+
+    interface Listener {
+        /**
+         * Called when this tab becomes the leader. A tab that takes over from
+         * another leader may have missed the updates sent in between.
+         */
+        void onLeader(boolean takeover);
+
+        /**
+         * Called when this tab stops being the leader, because another
+         * tab claimed it at the same time, or took over while it was hidden
+         */
+        void onFollower();
+
+        /**
+         * Called on every heartbeat of this tab as the leader, after the first,
+         * once no other tab has claimed the leadership at the same time
+         */
+        void onLeaderHeartbeat();
+
+        /**
+         * Called with each message broadcast by the leader
+         */
+        void onMessage(String message);
+
+        /**
+         * Called when the leader asks the other tabs to fetch the updates
+         * they may have missed
+         */
+        void onResync();
+    }
+
+    private static final int HEARTBEAT_INTERVAL_MS = 2000;
+    private static final int THROTTLED_HEARTBEAT_INTERVAL_MS = 60000;
+    private static final int LEADER_TIMEOUT_MS = 3 * THROTTLED_HEARTBEAT_INTERVAL_MS;
+
+    private static final String LEADER_KEY_PREFIX = "todolist.leader.";
+    private static final String BROADCAST_KEY_PREFIX = "todolist.broadcast.";
+    private static final String MESSAGE = "m";
+    private static final String RESYNC = "r";
+    private static final String HIDDEN = "h";
+
+    private final Listener listener;
+    private final Storage storage = Storage.getLocalStorageIfSupported();
+    private final String leaderKey;
+    private final String broadcastKey;
+    private final String tabId = Long.toString((long) Duration.currentTimeMillis(), 36)
+            + Integer.toString(Math.abs(Random.nextInt()), 36);
+
+    private boolean leader = false;
+    private boolean started = false;
+    private boolean firstHeartbeat = true;
+    private int broadcastCount = 0;
+
+    private final Timer heartbeatTimer = new Timer() {
+        @Override
+        public void run() {
+            heartbeat();
+        }
+    };
+
+    TodoListTabLeader(String userId, Listener listener) {
+        this.listener = listener;
+        this.leaderKey = LEADER_KEY_PREFIX + userId;
+        this.broadcastKey = BROADCAST_KEY_PREFIX + userId;
+    }
+
+    public void start() {
+        if (started)
+            return;
+        started = true;
+
+        if (storage == null) {
+            becomeLeader(false);
+            return;
+        }
+
+        Storage.addStorageEventHandler(new StorageEvent.Handler() {
+            @Override
+            public void onStorageChange(StorageEvent event) {
+                if (leaderKey.equals(event.getKey())) {
+                    // Take over if the leader closed or was hidden, or step
+                    //  down if another tab took over from this one
+                    if (event.getNewValue() == null || !event.getNewValue().startsWith(tabId + ":"))
+                        heartbeat();
+                } else if (broadcastKey.equals(event.getKey()) && event.getNewValue() != null) {
+                    onBroadcast(event.getNewValue());
+                }
+            }
+        });
+
+        Window.addCloseHandler(new CloseHandler<Window>() {
+            @Override
+            public void onClose(CloseEvent<Window> event) {
+                if (leader)
+                    storage.removeItem(leaderKey);
+            }
+        });
+
+        addVisibilityHandler();
+        heartbeat();
+        heartbeatTimer.scheduleRepeating(HEARTBEAT_INTERVAL_MS);
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Sends a channel message to the other tabs
+     */
+    public void broadcast(String message) {
+        send(MESSAGE, message);
+    }
+
+    /**
+     * Asks the other tabs to fetch the updates they may have missed
+     */
+    public void broadcastResync() {
+        send(RESYNC, "");
+    }
+
+    private void send(String type, String payload) {
+        if (storage == null || !leader)
+            return;
+
+        // The count makes every value unique, since setting
+        //  an unchanged value doesn't fire a storage event
+        try {
+            storage.setItem(broadcastKey, tabId + ":" + (broadcastCount++) + ":" + type + ":" + payload);
+        } catch (Exception e) {
+            // Storage quota exceeded, the other tabs resync when they next refresh
+        }
+    }
+
+    private void onBroadcast(String value) {
+        int typeStart = value.indexOf(':', value.indexOf(':') + 1) + 1;
+        if (typeStart <= 0 || typeStart + 2 > value.length())
+            return;
+
+        String type = value.substring(typeStart, typeStart + 1);
+        if (MESSAGE.equals(type))
+            listener.onMessage(value.substring(typeStart + 2));
+        else if (RESYNC.equals(type))
+            listener.onResync();
+    }
+
+    /**
+     * Refreshes the heartbeat if this tab is the leader, otherwise claims the
+     * leadership if the leader's heartbeat has expired, or the leader is hidden
+     * and this tab isn't. Two tabs may claim it at once, so the last one to
+     * write keeps it.
+     */
+    private void heartbeat() {
+        double now = Duration.currentTimeMillis();
+        boolean hidden = isHidden();
+        String value = storage.getItem(leaderKey);
+        String leaderId = null;
+        double leaderTime = 0;
+        boolean leaderHidden = false;
+        if (value != null) {
+            int separator = value.indexOf(':');
+            leaderId = value.substring(0, Math.max(separator, 0));
+            leaderHidden = value.endsWith(":" + HIDDEN);
+            try {
+                leaderTime = Double.parseDouble(value.substring(separator + 1,
+                        leaderHidden ? value.length() - HIDDEN.length() - 1 : value.length()));
+            } catch (NumberFormatException e) {
+                leaderTime = 0;
+            }
+        }
+
+        if (leader && leaderId != null && !tabId.equals(leaderId)) {
+            leader = false;
+            listener.onFollower();
+            return;
+        }
+
+        // Only the first claim, on startup, can't have missed any updates
+        boolean takeover = !firstHeartbeat || leaderId != null;
+        firstHeartbeat = false;
+
+        if (leader || leaderId == null || now - leaderTime >= LEADER_TIMEOUT_MS || (leaderHidden && !hidden)) {
+            storage.setItem(leaderKey, tabId + ":" + (long) now + (hidden ? ":" + HIDDEN : ""));
+            if (!leader)
+                becomeLeader(takeover);
+            else
+                listener.onLeaderHeartbeat();
+        }
+    }
+
+    private void becomeLeader(boolean takeover) {
+        leader = true;
+        listener.onLeader(takeover);
+    }
+
+    /**
+     * A leader that is hidden marks its heartbeat hidden, and a tab shown
+     * takes over from a hidden leader, rather than waiting for it to time out
+     */
+    private void onVisibilityChange() {
+        if (leader || !isHidden())
+            heartbeat();
+    }
+
+    private native void addVisibilityHandler() /*-{
+        var self = this;
+        $doc.addEventListener("visibilitychange", $entry(function() {
+            self.@com.oci.example.cloudtodolist.client.TodoListTabLeader::onVisibilityChange()();
+        }), false);
+    }-*/;
+
+    private static native boolean isHidden() /*-{
+        return !!$doc.hidden;
+    }-*/;
+}
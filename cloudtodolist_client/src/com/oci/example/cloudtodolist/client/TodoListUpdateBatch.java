@@ -0,0 +1,61 @@
+package com.oci.example.cloudtodolist.client;
+
+import com.google.gwt.animation.client.AnimationScheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Buffers entry updates and hands them off together, once per animation frame.
+ * Only the latest copy of each entry, by sequence number, is kept, so a burst
+ * of updates to the same entries is applied, and displayed, a single time,
+ * and an older copy received after a newer one doesn't replace it.
+ */
+class TodoListUpdateBatch {
+
+    interface Handler {
+        void onUpdates(Collection<TodoListEntry> entries);
+    }
+
+    private final Map<Integer, TodoListEntry> pendingEntries = new LinkedHashMap<Integer, TodoListEntry>();
+    private final Handler handler;
+    private boolean scheduled = false;
+
+    TodoListUpdateBatch(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Queues an entry update, replacing any update queued for the same id
+     * that isn't newer
+     */
+    public void add(TodoListEntry entry) {
+        TodoListEntry pendingEntry = pendingEntries.get(entry.getId());
+        if (pendingEntry == null || entry.getSeq() >= pendingEntry.getSeq())
+            pendingEntries.put(entry.getId(), entry);
+        if (!scheduled) {
+            scheduled = true;
+            AnimationScheduler.get().requestAnimationFrame(new AnimationScheduler.AnimationCallback() {
+                @Override
+                public void execute(double timestamp) {
+                    flush();
+                }
+            });
+        }
+    }
+
+    /**
+     * Hands all queued updates to the handler now
+     */
+    public void flush() {
+        scheduled = false;
+        if (pendingEntries.isEmpty())
+            return;
+
+        Collection<TodoListEntry> entries = new ArrayList<TodoListEntry>(pendingEntries.values());
+        pendingEntries.clear();
+        handler.onUpdates(entries);
+    }
+}
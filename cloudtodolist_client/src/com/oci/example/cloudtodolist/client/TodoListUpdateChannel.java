@@ -0,0 +1,236 @@
+package com.oci.example.cloudtodolist.client;
+
+import com.google.gwt.appengine.channel.client.Channel;
+import com.google.gwt.appengine.channel.client.ChannelFactory;
+import com.google.gwt.appengine.channel.client.Socket;
+import com.google.gwt.appengine.channel.client.SocketError;
+import com.google.gwt.appengine.channel.client.SocketListener;
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.user.client.Random;
+import com.google.gwt.user.client.Timer;
+
+import java.util.logging.Logger;
+
+/**
+ * Keeps the update channel connected. When the channel closes, or a token
+ * can't be obtained, reconnecting is retried after a random delay of up to
+ * an exponentially growing limit, so that clients disconnected by the same
+ * outage don't all reconnect at once.  Once a channel reopens, the listener
+ * is told to fetch the updates that were sent while it was down.
+ *
+ * Also tracks the number of reconnects, the total time spent disconnected
+ * and the number of entries fetched to catch up after reconnecting.
+ */
+class TodoListUpdateChannel {
+
+    interface Listener {
+        /**
+         * Requests a channel token from the server. The listener must
+         * pass the result to onToken or onTokenFailure.
+         */
+        void requestToken();
+
+        void onMessage(String message);
+
+        /**
+         * Called when the channel reopens after being disconnected
+         */
+        void onReconnect();
+    }
+
+    private static final int MIN_RECONNECT_DELAY_MS = 1000;
+    private static final int MAX_RECONNECT_DELAY_MS = 5 * 60 * 1000;
+
+    private static final Logger logger = Logger.getLogger("TodoListUpdateChannel");
+
+    private final Listener listener;
+    private Socket socket = null;
+    private boolean connecting = false;
+    private boolean stopped = false;
+    private boolean channelScriptLoaded = false;
+    private int reconnectAttempts = 0;
+
+    private int reconnectCount = 0;
+    private double disconnectedSince = 0;
+    private double disconnectedMillis = 0;
+    private int catchUpEntryCount = 0;
+
+    private final Timer reconnectTimer = new Timer() {
+        @Override
+        public void run() {
+            connect();
+        }
+    };
+
+    TodoListUpdateChannel(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Connects the channel, unless it's already connected or connecting
+     */
+    public void connect() {
+        connect(false);
+    }
+
+    /**
+     * Connects the channel. If updates may have been missed before connecting,
+     * the listener is told to fetch them once the channel is open, as after
+     * a reconnect. A channel that is already open hasn't missed any.
+     */
+    public void connect(boolean missedUpdates) {
+        stopped = false;
+        if (isConnected())
+            return;
+
+        if (missedUpdates && disconnectedSince == 0)
+            disconnectedSince = Duration.currentTimeMillis();
+
+        if (socket != null || connecting)
+            return;
+
+        connecting = true;
+        listener.requestToken();
+    }
+
+    /**
+     * Closes the channel, without reconnecting
+     */
+    public void disconnect() {
+        stopped = true;
+        connecting = false;
+        reconnectTimer.cancel();
+
+        // A channel closed on purpose doesn't count as disconnected
+        if (disconnectedSince != 0) {
+            disconnectedMillis += Duration.currentTimeMillis() - disconnectedSince;
+            disconnectedSince = 0;
+        }
+        if (socket != null) {
+            Socket closingSocket = socket;
+            socket = null;
+            closingSocket.close();
+        }
+    }
+
+    public void onToken(String token) {
+        if (stopped)
+            return;
+
+        // The channel factory only ever creates one channel, for the first token,
+        //  so later tokens get their channel directly from the loaded channel script
+        if (channelScriptLoaded) {
+            open(createChannel(token));
+        } else {
+            ChannelFactory.createChannel(token, new ChannelFactory.ChannelCreatedCallback() {
+                @Override
+                public void onChannelCreated(Channel channel) {
+                    channelScriptLoaded = true;
+                    open(channel);
+                }
+            });
+        }
+    }
+
+    public void onTokenFailure() {
+        if (stopped)
+            return;
+        connecting = false;
+        disconnected();
+    }
+
+    /**
+     * Records the number of entries fetched to catch up after a reconnect
+     */
+    public void onCatchUp(int entryCount) {
+        catchUpEntryCount += entryCount;
+    }
+
+    public boolean isConnected() {
+        return socket != null && !connecting;
+    }
+
+    public int getReconnectCount() {
+        return reconnectCount;
+    }
+
+    public double getDisconnectedMillis() {
+        if (disconnectedSince != 0)
+            return disconnectedMillis + Duration.currentTimeMillis() - disconnectedSince;
+        return disconnectedMillis;
+    }
+
+    public int getCatchUpEntryCount() {
+        return catchUpEntryCount;
+    }
+
+    private void open(Channel channel) {
+        ChannelListener channelListener = new ChannelListener();
+        channelListener.socket = channel.open(channelListener);
+        socket = channelListener.socket;
+    }
+
+    /**
+     * Listens to one socket, ignoring its callbacks once it was closed on
+     * purpose or replaced by a newer socket, so a late close of an old socket
+     * doesn't drop the current one
+     */
+    private class ChannelListener implements SocketListener {
+        Socket socket = null;
+
+        private boolean isCurrent() {
+            return socket != null && socket == TodoListUpdateChannel.this.socket;
+        }
+
+        @Override
+        public void onOpen() {
+            if (!isCurrent())
+                return;
+            connecting = false;
+            reconnectAttempts = 0;
+            if (disconnectedSince != 0) {
+                disconnectedMillis += Duration.currentTimeMillis() - disconnectedSince;
+                disconnectedSince = 0;
+                reconnectCount++;
+                logger.info("Update channel reconnected, reconnects: " + reconnectCount
+                        + ", disconnected: " + (long) disconnectedMillis + "ms"
+                        + ", catch up entries: " + catchUpEntryCount);
+                listener.onReconnect();
+            }
+        }
+
+        @Override
+        public void onMessage(String message) {
+            if (isCurrent())
+                listener.onMessage(message);
+        }
+
+        @Override
+        public void onError(SocketError error) {
+            // The socket closes after an error, which reconnects it
+        }
+
+        @Override
+        public void onClose() {
+            if (!isCurrent())
+                return;
+            TodoListUpdateChannel.this.socket = null;
+            connecting = false;
+            disconnected();
+        }
+    }
+
+    private void disconnected() {
+        if (disconnectedSince == 0)
+            disconnectedSince = Duration.currentTimeMillis();
+
+        int maxDelay = MIN_RECONNECT_DELAY_MS << Math.min(reconnectAttempts, 16);
+        reconnectAttempts++;
+        reconnectTimer.schedule(MIN_RECONNECT_DELAY_MS
+                + Random.nextInt(Math.min(maxDelay, MAX_RECONNECT_DELAY_MS)));
+    }
+
+    private static native Channel createChannel(String token) /*-{
+        return new $wnd.goog.appengine.Channel(token);
+    }-*/;
+}
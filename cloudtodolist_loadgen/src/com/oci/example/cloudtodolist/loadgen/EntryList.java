@@ -0,0 +1,68 @@
+package com.oci.example.cloudtodolist.loadgen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fields of an entry list response the simulated users keep, read from
+ * either the JSON or the compact format.
+ *
+ * @param live ids of all entries that aren't deleted, or null if the response
+ *             doesn't include them
+ */
+record EntryList(double timestamp, List<Entry> entries, List<Integer> live) {
+
+    record Entry(int id, boolean complete, boolean deleted) {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the body is not an entry list
+     */
+    static EntryList parse(String body) {
+        Map<String, Object> list = Json.asObject(Json.parse(body));
+        if (!(list.get("timestamp") instanceof Double timestamp))
+            throw new IllegalArgumentException("missing timestamp");
+
+        List<Entry> entries = new ArrayList<>();
+        if (list.containsKey("fields"))
+            readCompact(list, entries);
+        else
+            readJson(list, entries);
+
+        List<Integer> live = null;
+        if (list.get("live") != null) {
+            live = new ArrayList<>();
+            for (Object id : Json.asArray(list.get("live")))
+                live.add(Json.asInt(id));
+        }
+        return new EntryList(timestamp, entries, live);
+    }
+
+    private static void readJson(Map<String, Object> list, List<Entry> entries) {
+        for (Object value : Json.asArray(list.get("entries"))) {
+            // Batch responses have null entries for updates of entries that no longer exist
+            if (value == null)
+                continue;
+            Map<String, Object> entry = Json.asObject(value);
+            entries.add(new Entry(Json.asInt(entry.get("id")),
+                    isTrue(entry.get("complete")), isTrue(entry.get("deleted"))));
+        }
+    }
+
+    private static void readCompact(Map<String, Object> list, List<Entry> entries) {
+        for (Object value : Json.asArray(list.get("entries"))) {
+            // id, title, created, modified, seq, notes, complete, trailing defaults omitted
+            List<Object> row = Json.asArray(value);
+            entries.add(new Entry(Json.asInt(row.get(0)), row.size() > 6 && isTrue(row.get(6)), false));
+        }
+        if (list.get("deleted") != null) {
+            for (Object value : Json.asArray(list.get("deleted")))
+                entries.add(new Entry(Json.asInt(Json.asArray(value).get(0)), false, true));
+        }
+    }
+
+    private static boolean isTrue(Object value) {
+        return Boolean.TRUE.equals(value) || value instanceof Double number && number != 0;
+    }
+}
@@ -0,0 +1,101 @@
+package com.oci.example.cloudtodolist.loadgen;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the latency of each request, per operation and list size bucket.
+ * Every sample is kept, so the percentiles are exact.
+ *
+ * Each simulated user records into its own recorder, and the recorders are
+ * merged once the run is over, so recording needs no locking.
+ */
+final class LatencyRecorder {
+
+    /**
+     * Operation and list size bucket, the smallest power of ten, from 10 up,
+     * that is at least the number of entries in the list
+     */
+    record Key(String operation, int sizeBucket) implements Comparable<Key> {
+
+        static Key of(String operation, int listSize) {
+            int sizeBucket = 10;
+            while (sizeBucket < listSize)
+                sizeBucket *= 10;
+            return new Key(operation, sizeBucket);
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int order = operation.compareTo(other.operation);
+            return order != 0 ? order : Integer.compare(sizeBucket, other.sizeBucket);
+        }
+    }
+
+    private static final class Samples {
+        long[] nanos = new long[64];
+        int count = 0;
+        int errors = 0;
+
+        void add(long latencyNanos) {
+            if (count == nanos.length)
+                nanos = Arrays.copyOf(nanos, count * 2);
+            nanos[count++] = latencyNanos;
+        }
+
+        void addAll(Samples other) {
+            if (count + other.count > nanos.length)
+                nanos = Arrays.copyOf(nanos, Math.max(nanos.length * 2, count + other.count));
+            System.arraycopy(other.nanos, 0, nanos, count, other.count);
+            count += other.count;
+            errors += other.errors;
+        }
+    }
+
+    private final Map<Key, Samples> samples = new TreeMap<>();
+
+    void record(String operation, int listSize, long latencyNanos, boolean error) {
+        Samples keySamples = samples.computeIfAbsent(Key.of(operation, listSize), key -> new Samples());
+        keySamples.add(latencyNanos);
+        if (error)
+            keySamples.errors++;
+    }
+
+    void merge(LatencyRecorder other) {
+        for (Map.Entry<Key, Samples> entry : other.samples.entrySet())
+            samples.computeIfAbsent(entry.getKey(), key -> new Samples()).addAll(entry.getValue());
+    }
+
+    /**
+     * Prints the throughput and latency percentiles of each operation and list size
+     */
+    void report(PrintStream out, double elapsedSeconds) {
+        out.printf("%-28s %8s %9s %9s %9s %9s %9s %7s%n",
+                "operation", "size", "requests", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "errors");
+        long total = 0;
+        for (Map.Entry<Key, Samples> entry : samples.entrySet()) {
+            Samples keySamples = entry.getValue();
+            long[] sorted = Arrays.copyOf(keySamples.nanos, keySamples.count);
+            Arrays.sort(sorted);
+            out.printf("%-28s %8s %9d %9.1f %9.2f %9.2f %9.2f %7d%n",
+                    entry.getKey().operation(), "<=" + entry.getKey().sizeBucket(), keySamples.count,
+                    keySamples.count / elapsedSeconds,
+                    percentile(sorted, 50), percentile(sorted, 99), percentile(sorted, 99.9),
+                    keySamples.errors);
+            total += keySamples.count;
+        }
+        out.printf("%-28s %8s %9d %9.1f%n", "total", "", total, total / elapsedSeconds);
+    }
+
+    /**
+     * Returns the percentile, in milliseconds, of sorted latencies, using the nearest rank
+     */
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0)
+            return 0;
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,171 @@
+package com.oci.example.cloudtodolist.loadgen;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Load generator for the todo list server. Simulates many concurrent users
+ * of the browser client, each on its own virtual thread, sending the same
+ * requests as the client, and reports the throughput and latency
+ * percentiles of each operation per list size.
+ *
+ * Without a url, it runs against an in-memory stand-in server. With one, e.g.
+ * of the development server, users log in with the development server's
+ * login cookie.
+ *
+ * Usage: LoadGenerator [--option=value ...]
+ *
+ *  --url          base url of the server, defaults to a stand-in server
+ *  --users        number of simulated users, defaults to 100
+ *  --list-sizes   comma separated list sizes the users fill their lists up to,
+ *                 spread over the users, defaults to 100
+ *  --warmup       seconds before the latencies are recorded, defaults to 10
+ *  --duration     seconds the latencies are recorded for, defaults to 60
+ *  --think-ms     mean time between the actions of a user, defaults to 500
+ *  --edits        'batch' to edit with batch requests, as the client does, or 'put'
+ *                 to use the single entry POST and PUT requests, defaults to batch
+ *  --delete-max   most completed entries deleted at once, defaults to 20
+ *  --seed         seed of the users' random choices, defaults to 42
+ */
+public final class LoadGenerator {
+
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "users", "100",
+            "list-sizes", "100",
+            "warmup", "10",
+            "duration", "60",
+            "think-ms", "500",
+            "edits", "batch",
+            "delete-max", "20",
+            "seed", "42");
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options;
+        try {
+            options = parseOptions(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: LoadGenerator [--url=URL] [--users=N] [--list-sizes=N,...] [--warmup=S]"
+                    + " [--duration=S] [--think-ms=MS] [--edits=batch|put] [--delete-max=N] [--seed=N]");
+            System.exit(2);
+            return;
+        }
+
+        StandInServer standIn = null;
+        URI baseUri;
+        if (options.containsKey("url")) {
+            baseUri = URI.create(options.get("url"));
+        } else {
+            standIn = StandInServer.start(0);
+            baseUri = standIn.getUri();
+        }
+
+        try {
+            run(baseUri, options, System.out);
+        } finally {
+            if (standIn != null)
+                standIn.stop();
+        }
+    }
+
+    private static void run(URI baseUri, Map<String, String> options, PrintStream out) throws InterruptedException {
+        int users = Integer.parseInt(options.get("users"));
+        int[] listSizes = parseSizes(options.get("list-sizes"));
+        long warmupNanos = Long.parseLong(options.get("warmup")) * 1000000000L;
+        long durationNanos = Long.parseLong(options.get("duration")) * 1000000000L;
+        double thinkMillis = Double.parseDouble(options.get("think-ms"));
+        SimulatedUser.EditProtocol editProtocol = SimulatedUser.EditProtocol.valueOf(
+                options.get("edits").toUpperCase());
+        int deleteMax = Integer.parseInt(options.get("delete-max"));
+        long seed = Long.parseLong(options.get("seed"));
+
+        out.printf("Running %d users against %s for %ds after a %ds warmup, list sizes %s, %s edits%n",
+                users, baseUri, durationNanos / 1000000000L, warmupNanos / 1000000000L,
+                options.get("list-sizes"), options.get("edits"));
+
+        List<SimulatedUser> simulatedUsers = new ArrayList<>();
+
+        // The client's executor is closed last, since closing the users' executor
+        //  stops accepting tasks before waiting for the users to finish
+        try (ExecutorService httpExecutor = Executors.newVirtualThreadPerTaskExecutor();
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient http = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .executor(httpExecutor)
+                    .build();
+
+            long measureStart = System.nanoTime() + warmupNanos;
+            long deadline = measureStart + durationNanos;
+            for (int i = 0; i < users; i++) {
+                // Numeric ids, as the development server's login cookie needs
+                String userId = String.valueOf(100000 + i);
+                TodoListClient client = new TodoListClient(http, baseUri, "user" + i + "@example.com", userId);
+                SimulatedUser user = new SimulatedUser(userId, client, new Random(seed + i),
+                        listSizes[i % listSizes.length], editProtocol, deleteMax, thinkMillis,
+                        measureStart, deadline);
+                simulatedUsers.add(user);
+                executor.submit(user);
+            }
+        }
+
+        LatencyRecorder recorder = new LatencyRecorder();
+        int invalidResponses = 0;
+        for (SimulatedUser user : simulatedUsers) {
+            recorder.merge(user.getRecorder());
+            invalidResponses += user.getInvalidResponses();
+        }
+
+        recorder.report(out, durationNanos / 1e9);
+        if (invalidResponses > 0)
+            out.printf("%d responses could not be parsed%n", invalidResponses);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0)
+                throw new IllegalArgumentException("Invalid option " + arg);
+            String name = arg.substring(2, equals);
+            if (!name.equals("url") && !DEFAULTS.containsKey(name))
+                throw new IllegalArgumentException("Unknown option " + arg);
+            options.put(name, arg.substring(equals + 1));
+        }
+
+        try {
+            Integer.parseInt(options.get("users"));
+            parseSizes(options.get("list-sizes"));
+            Long.parseLong(options.get("warmup"));
+            Long.parseLong(options.get("duration"));
+            Double.parseDouble(options.get("think-ms"));
+            SimulatedUser.EditProtocol.valueOf(options.get("edits").toUpperCase());
+            Integer.parseInt(options.get("delete-max"));
+            Long.parseLong(options.get("seed"));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid option value: " + e.getMessage());
+        }
+        return options;
+    }
+
+    private static int[] parseSizes(String sizes) {
+        String[] fields = sizes.split(",");
+        int[] parsed = new int[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            parsed[i] = Integer.parseInt(fields[i].trim());
+        return parsed;
+    }
+}
@@ -0,0 +1,367 @@
+package com.oci.example.cloudtodolist.loadgen;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * One user of the browser client, run on its own virtual thread. The user
+ * loads the full list, fills it up to its target size, requests an update
+ * channel token, then until the run ends, after a random think time, does
+ * one of the following, weighted like a user editing a list:
+ *
+ *  - polls for the changes since its last sync, as the client does when its
+ *    channel reconnects, with the ETag of its last list response
+ *  - reloads the full list, as the client does when it's opened again
+ *  - creates an entry while the list is below its target size, otherwise
+ *    deletes up to deleteMax of its completed entries with a bulk delete, so
+ *    the list stays at about its target size
+ *  - sets an entry's complete flag, title or notes
+ *  - requests a new update channel token, as the client does when its
+ *    token expires or the channel reconnects
+ *
+ * Creates and edits are sent with batch requests, or with the single entry
+ * POST and PUT requests.
+ *
+ * The latency of every request is recorded once the measurement starts, along
+ * with the list size at the time. The first action measured reloads the full
+ * list, since the initial full list is loaded before the measurement starts.
+ */
+final class SimulatedUser implements Runnable {
+
+    enum EditProtocol {
+        BATCH, PUT
+    }
+
+    // Largest number of operations in one batch, as the server's datastore batches
+    private static final int MAX_BATCH_OPS = 500;
+
+    private enum Operation {
+        POLL(40), RELOAD(5), CHURN(20), COMPLETE(15), TITLE(10), NOTES(5), TOKEN(5);
+
+        final int weight;
+
+        Operation(int weight) {
+            this.weight = weight;
+        }
+
+        static Operation pick(Random random) {
+            int value = random.nextInt(100);
+            for (Operation operation : values()) {
+                value -= operation.weight;
+                if (value < 0)
+                    return operation;
+            }
+            return POLL;
+        }
+    }
+
+    private final String userId;
+    private final TodoListClient client;
+    private final LatencyRecorder recorder = new LatencyRecorder();
+    private final Random random;
+    private final int targetSize;
+    private final EditProtocol editProtocol;
+    private final int deleteMax;
+    private final double thinkMillis;
+    private final long measureStartNanos;
+    private final long deadlineNanos;
+
+    // Ids of the user's entries, in a list to pick one at random, and the completed ones
+    private final List<Integer> ids = new ArrayList<>();
+    private final Map<Integer, Integer> idPositions = new HashMap<>();
+    private final Set<Integer> completed = new LinkedHashSet<>();
+
+    private double lastSyncTime = 0;
+    private String listETag = null;
+    private int batchCount = 0;
+    private int invalidResponses = 0;
+
+    SimulatedUser(String userId, TodoListClient client, Random random, int targetSize,
+                  EditProtocol editProtocol, int deleteMax, double thinkMillis,
+                  long measureStartNanos, long deadlineNanos) {
+        this.userId = userId;
+        this.client = client;
+        this.random = random;
+        this.targetSize = targetSize;
+        this.editProtocol = editProtocol;
+        this.deleteMax = deleteMax;
+        this.thinkMillis = thinkMillis;
+        this.measureStartNanos = measureStartNanos;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    LatencyRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Returns the number of successful responses that could not be parsed
+     */
+    int getInvalidResponses() {
+        return invalidResponses;
+    }
+
+    @Override
+    public void run() {
+        try {
+            run(Operation.POLL);
+            while (ids.size() < targetSize && System.nanoTime() < deadlineNanos) {
+                int size = ids.size();
+                try {
+                    createBatch(Math.min(MAX_BATCH_OPS, targetSize - size), false);
+                } catch (IllegalArgumentException e) {
+                    invalidResponses++;
+                }
+                if (ids.size() == size)
+                    break;
+            }
+            run(Operation.TOKEN);
+
+            boolean reloadMeasured = false;
+            while (true) {
+                // Exponential think times, as for independent user actions
+                long thinkNanos = (long) (-Math.log(1 - random.nextDouble()) * thinkMillis * 1e6);
+                if (System.nanoTime() + thinkNanos >= deadlineNanos)
+                    break;
+                Thread.sleep(thinkNanos / 1000000, (int) (thinkNanos % 1000000));
+
+                if (!reloadMeasured && System.nanoTime() >= measureStartNanos) {
+                    reloadMeasured = true;
+                    run(Operation.RELOAD);
+                } else {
+                    run(Operation.pick(random));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(Operation operation) throws InterruptedException {
+        try {
+            switch (operation) {
+                case POLL -> poll();
+                case RELOAD -> reload();
+                case CHURN -> {
+                    if (ids.size() < targetSize)
+                        create();
+                    else
+                        deleteCompleted();
+                }
+                case COMPLETE -> edit("complete");
+                case TITLE -> edit("title");
+                case NOTES -> edit("notes");
+                case TOKEN -> requestToken();
+            }
+        } catch (IllegalArgumentException e) {
+            invalidResponses++;
+        }
+    }
+
+    private void poll() throws InterruptedException {
+        boolean fullList = lastSyncTime == 0;
+        TodoListClient.Response response = timed(fullList ? "GET entries" : "GET entries?since", true,
+                () -> client.getEntries(lastSyncTime, listETag));
+        if (response == null || response.status() == 304)
+            return;
+        if (response.status() == 400) {
+            // The server's data was reset, start over with the full list
+            lastSyncTime = 0;
+            listETag = null;
+            return;
+        }
+        if (response.status() != 200)
+            return;
+
+        EntryList entryList = EntryList.parse(response.body());
+        if (fullList)
+            retainIds(idsOf(entryList.entries()));
+        else if (entryList.live() != null)
+            retainIds(new HashSet<>(entryList.live()));
+        apply(entryList.entries());
+        lastSyncTime = Math.max(lastSyncTime, entryList.timestamp());
+        listETag = response.etag();
+    }
+
+    /**
+     * Requests the full list again, without the sync point and ETag of the last one
+     */
+    private void reload() throws InterruptedException {
+        lastSyncTime = 0;
+        listETag = null;
+        poll();
+    }
+
+    private void create() throws InterruptedException {
+        if (editProtocol == EditProtocol.BATCH) {
+            createBatch(1, true);
+            return;
+        }
+
+        TodoListClient.Response response = timed("POST entries", true, () -> client.postEntry(title()));
+        if (response != null && response.status() == 201) {
+            Map<String, Object> entry = Json.asObject(Json.parse(response.body()));
+            put(Json.asInt(entry.get("id")), false);
+        }
+    }
+
+    private void createBatch(int count, boolean measured) throws InterruptedException {
+        StringBuilder ops = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                ops.append(',');
+            ops.append("{\"title\":").append(Json.quote(title())).append('}');
+        }
+        sendBatch("POST batch create", measured, ops.toString());
+    }
+
+    /**
+     * Sets a field of a random entry, creating an entry if there are none
+     */
+    private void edit(String field) throws InterruptedException {
+        if (ids.isEmpty()) {
+            create();
+            return;
+        }
+
+        int id = ids.get(random.nextInt(ids.size()));
+        String value = switch (field) {
+            case "complete" -> completed.contains(id) ? "0" : "1";
+            case "title" -> title();
+            default -> "Notes " + random.nextInt(1000000);
+        };
+
+        if (editProtocol == EditProtocol.BATCH) {
+            String fieldValue = field.equals("complete") ? value : Json.quote(value);
+            sendBatch("POST batch " + field, true, "{\"id\":" + id + ",\"" + field + "\":" + fieldValue + "}");
+            return;
+        }
+
+        TodoListClient.Response response = timed("PUT " + field, true, () -> client.putEntry(id, field, value));
+        if (response != null && response.status() == 200) {
+            Map<String, Object> entry = Json.asObject(Json.parse(response.body()));
+            put(id, Boolean.TRUE.equals(entry.get("complete")));
+        } else if (response != null && response.status() == 410) {
+            remove(id);
+        }
+    }
+
+    private void sendBatch(String operation, boolean measured, String ops) throws InterruptedException {
+        String json = "{\"batch\":\"" + userId + "-" + (++batchCount) + "\",\"ops\":[" + ops + "]}";
+        TodoListClient.Response response = timed(operation, measured, () -> client.postBatch(json));
+        if (response != null && response.status() == 200)
+            apply(EntryList.parse(response.body()).entries());
+    }
+
+    /**
+     * Deletes completed entries, as the client's clear completed button does
+     */
+    private void deleteCompleted() throws InterruptedException {
+        if (completed.isEmpty()) {
+            edit("complete");
+            return;
+        }
+
+        StringBuilder json = new StringBuilder("{\"ids\":[");
+        int count = 0;
+        for (int id : completed) {
+            if (count == deleteMax)
+                break;
+            if (count++ > 0)
+                json.append(',');
+            json.append(id);
+        }
+        json.append("]}");
+
+        TodoListClient.Response response = timed("POST delete", true, () -> client.postDelete(json.toString()));
+        if (response != null && response.status() == 200)
+            apply(EntryList.parse(response.body()).entries());
+    }
+
+    private void requestToken() throws InterruptedException {
+        timed("GET update_channel", true, client::getUpdateChannel);
+    }
+
+    private interface Request {
+        TodoListClient.Response send() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Sends the request and records its latency, returns null if it failed
+     */
+    private TodoListClient.Response timed(String operation, boolean measured, Request request)
+            throws InterruptedException {
+        int listSize = ids.size();
+        long start = System.nanoTime();
+        TodoListClient.Response response = null;
+        try {
+            response = request.send();
+        } catch (IOException e) {
+            // Recorded as an error below
+        }
+        long end = System.nanoTime();
+
+        if (measured && start >= measureStartNanos && end <= deadlineNanos)
+            recorder.record(operation, listSize, end - start, response == null || !response.isOk());
+        return response;
+    }
+
+    private String title() {
+        return "Entry " + random.nextInt(1000000);
+    }
+
+    private void apply(List<EntryList.Entry> entries) {
+        for (EntryList.Entry entry : entries) {
+            if (entry.deleted())
+                remove(entry.id());
+            else
+                put(entry.id(), entry.complete());
+        }
+    }
+
+    private static Set<Integer> idsOf(List<EntryList.Entry> entries) {
+        Set<Integer> entryIds = new HashSet<>();
+        for (EntryList.Entry entry : entries)
+            entryIds.add(entry.id());
+        return entryIds;
+    }
+
+    private void retainIds(Set<Integer> entryIds) {
+        for (int id : new ArrayList<>(ids)) {
+            if (!entryIds.contains(id))
+                remove(id);
+        }
+    }
+
+    private void put(int id, boolean complete) {
+        if (!idPositions.containsKey(id)) {
+            idPositions.put(id, ids.size());
+            ids.add(id);
+        }
+        if (complete)
+            completed.add(id);
+        else
+            completed.remove(id);
+    }
+
+    private void remove(int id) {
+        Integer position = idPositions.remove(id);
+        if (position == null)
+            return;
+
+        // Move the last id into the removed id's position
+        int last = ids.remove(ids.size() - 1);
+        if (last != id) {
+            ids.set(position, last);
+            idPositions.put(last, position);
+        }
+        completed.remove(id);
+    }
+}
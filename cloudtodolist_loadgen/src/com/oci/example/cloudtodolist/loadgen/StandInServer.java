@@ -0,0 +1,427 @@
+package com.oci.example.cloudtodolist.loadgen;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory stand-in for the todo list server, implementing the requests the
+ * load generator sends with the same responses, status codes and headers,
+ * so the load generator can be run, and changed, without App Engine.
+ *
+ * Every change to a user's entries is stamped with the next number of the
+ * user's change sequence, as on the server. Deleted entries are kept as
+ * tombstones and never purged, so lists never include live ids.
+ *
+ * Users are identified by the development server's login cookie. Requests
+ * are handled on virtual threads, with one lock per user.
+ */
+final class StandInServer {
+
+    private record Entry(int id, String title, String notes, boolean complete,
+                         double created, double modified, int seq, boolean deleted) {
+
+        Entry with(String title, String notes, Boolean complete, double modified, int seq) {
+            return new Entry(id, title != null ? title : this.title, notes != null ? notes : this.notes,
+                    complete != null ? complete : this.complete, created, modified, seq, deleted);
+        }
+
+        Entry delete(double modified, int seq) {
+            return new Entry(id, title, notes, complete, created, modified, seq, true);
+        }
+    }
+
+    private record BatchOp(Integer id, String title, String notes, Boolean complete) {
+    }
+
+    private static final class UserList {
+        final ReentrantLock lock = new ReentrantLock();
+
+        // Entries in creation order, and every write of an entry in sequence order
+        final Map<Integer, Entry> entries = new LinkedHashMap<>();
+        final List<Entry> changes = new ArrayList<>();
+        final Map<String, String> batchResponses = new HashMap<>();
+        int seq = 0;
+
+        void write(Entry entry) {
+            entries.put(entry.id(), entry);
+            changes.add(entry);
+        }
+
+        /**
+         * Returns the latest copy of each entry changed after the sequence number
+         */
+        List<Entry> changesSince(int since) {
+            int low = 0;
+            int high = changes.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (changes.get(mid).seq() <= since)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+
+            Map<Integer, Entry> changed = new LinkedHashMap<>();
+            for (Entry entry : changes.subList(low, changes.size()))
+                changed.put(entry.id(), entries.get(entry.id()));
+            return new ArrayList<>(changed.values());
+        }
+    }
+
+    private static final class BadRequest extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BadRequest(String message) {
+            super(message);
+        }
+    }
+
+    private static final String LOGIN_COOKIE = "dev_appserver_login=";
+
+    private final HttpServer server;
+    private final Map<String, UserList> lists = new ConcurrentHashMap<>();
+
+    // Ids are unique across users, as datastore ids are
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final AtomicLong nextToken = new AtomicLong(1);
+
+    private StandInServer(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Starts a server on the port of the loopback address, or any free port if it is 0
+     */
+    static StandInServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        StandInServer standIn = new StandInServer(server);
+        server.createContext("/", standIn::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return standIn;
+    }
+
+    URI getUri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String userId = getUserId(exchange);
+            if (userId == null) {
+                send(exchange, 401, null);
+                return;
+            }
+
+            UserList list = lists.computeIfAbsent(userId, id -> new UserList());
+            list.lock.lock();
+            try {
+                route(exchange, list);
+            } catch (BadRequest | IllegalArgumentException e) {
+                send(exchange, 400, null);
+            } finally {
+                list.lock.unlock();
+            }
+        }
+    }
+
+    private void route(HttpExchange exchange, UserList list) throws IOException, BadRequest {
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+        if (path.equals("/todolist/entries") && method.equals("GET"))
+            getEntries(exchange, list, query);
+        else if (path.equals("/todolist/entries") && method.equals("POST"))
+            postEntry(exchange, list, query);
+        else if (path.equals("/todolist/entries/batch") && method.equals("POST"))
+            postBatch(exchange, list, readBody(exchange));
+        else if (path.equals("/todolist/entries/delete") && method.equals("POST"))
+            postDelete(exchange, list, readBody(exchange));
+        else if (path.matches("/todolist/entries/\\d+") && method.equals("PUT"))
+            putEntry(exchange, list, parseInt(path.substring(path.lastIndexOf('/') + 1)), query);
+        else if (path.equals("/todolist/update_channel") && method.equals("GET"))
+            sendJson(exchange, 200, "{\"token\":\"stand-in-" + nextToken.getAndIncrement() + "\"}");
+        else
+            send(exchange, 404, null);
+    }
+
+    private void getEntries(HttpExchange exchange, UserList list, Map<String, String> query)
+            throws IOException, BadRequest {
+        int since = parseInt(query.getOrDefault("since", "0"));
+        if (since > list.seq)
+            throw new BadRequest("since is ahead of the last change");
+
+        String etag = "\"" + list.seq + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            send(exchange, 304, null);
+            return;
+        }
+
+        List<Entry> entries;
+        if (since == 0) {
+            entries = new ArrayList<>();
+            for (Entry entry : list.entries.values()) {
+                if (!entry.deleted())
+                    entries.add(entry);
+            }
+        } else {
+            entries = list.changesSince(since);
+        }
+
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        exchange.getResponseHeaders().set("Vary", "Accept");
+        if (accept != null && accept.contains(TodoListClient.COMPACT_CONTENT_TYPE))
+            sendJson(exchange, 200, encodeCompactList(list.seq, entries));
+        else
+            sendJson(exchange, 200, encodeList(list.seq, entries));
+    }
+
+    private void postEntry(HttpExchange exchange, UserList list, Map<String, String> query) throws IOException {
+        double now = now();
+        Entry entry = new Entry(nextId.getAndIncrement(), query.getOrDefault("title", ""), query.get("notes"),
+                isTrue(query.get("complete")), now, now, ++list.seq, false);
+        list.write(entry);
+        sendJson(exchange, 201, encodeEntry(entry));
+    }
+
+    private void putEntry(HttpExchange exchange, UserList list, int id, Map<String, String> query)
+            throws IOException {
+        Entry entry = list.entries.get(id);
+        if (entry == null || entry.deleted()) {
+            send(exchange, 410, null);
+            return;
+        }
+
+        Boolean complete = query.containsKey("complete") ? isTrue(query.get("complete")) : null;
+        entry = entry.with(query.get("title"), query.get("notes"), complete, now(), ++list.seq);
+        list.write(entry);
+        sendJson(exchange, 200, encodeEntry(entry));
+    }
+
+    private void postBatch(HttpExchange exchange, UserList list, String body) throws IOException, BadRequest {
+        Map<String, Object> batch = Json.asObject(Json.parse(body));
+        String batchId = batch.get("batch") instanceof String id ? id : null;
+        if (batchId != null && list.batchResponses.containsKey(batchId)) {
+            sendJson(exchange, 200, list.batchResponses.get(batchId));
+            return;
+        }
+
+        // Operations are all read before any is applied, so an invalid batch changes nothing
+        List<BatchOp> ops = new ArrayList<>();
+        for (Object value : Json.asArray(batch.get("ops"))) {
+            Map<String, Object> op = Json.asObject(value);
+            ops.add(new BatchOp(op.containsKey("id") ? Json.asInt(op.get("id")) : null,
+                    stringField(op, "title"), stringField(op, "notes"),
+                    op.containsKey("complete") ? Json.asInt(op.get("complete")) != 0 : null));
+        }
+
+        // All operations of the batch are one change, as on the server
+        List<Entry> entries = new ArrayList<>();
+        double now = now();
+        int seq = list.seq + 1;
+        for (BatchOp op : ops) {
+            Entry entry;
+            if (op.id() != null) {
+                entry = list.entries.get(op.id());
+                if (entry == null || entry.deleted()) {
+                    entries.add(null);
+                    continue;
+                }
+                entry = entry.with(op.title(), op.notes(), op.complete(), now, seq);
+            } else {
+                entry = new Entry(nextId.getAndIncrement(), op.title() != null ? op.title() : "", op.notes(),
+                        op.complete() != null && op.complete(), now, now, seq, false);
+            }
+            list.write(entry);
+            entries.add(entry);
+        }
+        if (entries.stream().anyMatch(entry -> entry != null))
+            list.seq = seq;
+
+        String response = encodeList(maxSeq(entries), entries);
+        if (batchId != null)
+            list.batchResponses.put(batchId, response);
+        sendJson(exchange, 200, response);
+    }
+
+    private void postDelete(HttpExchange exchange, UserList list, String body) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        double now = now();
+        int seq = list.seq + 1;
+        for (Object id : Json.asArray(Json.asObject(Json.parse(body)).get("ids"))) {
+            Entry entry = list.entries.get(Json.asInt(id));
+            if (entry != null && !entry.deleted()) {
+                entry = entry.delete(now, seq);
+                list.write(entry);
+                entries.add(entry);
+            }
+        }
+        if (!entries.isEmpty())
+            list.seq = seq;
+        sendJson(exchange, 200, encodeList(maxSeq(entries), entries));
+    }
+
+    private static String getUserId(HttpExchange exchange) {
+        String cookies = exchange.getRequestHeaders().getFirst("Cookie");
+        if (cookies == null)
+            return null;
+        for (String cookie : cookies.split(";\\s*")) {
+            if (cookie.startsWith(LOGIN_COOKIE)) {
+                // email:admin:user id
+                String[] fields = cookie.substring(LOGIN_COOKIE.length()).split(":");
+                return fields.length == 3 ? fields[2] : null;
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null)
+            return query;
+        for (String param : rawQuery.split("[&;]")) {
+            int equals = param.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(param.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(param.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static int parseInt(String value) throws BadRequest {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequest("invalid number " + value);
+        }
+    }
+
+    private static String stringField(Map<String, Object> op, String field) {
+        Object value = op.get(field);
+        if (value != null && !(value instanceof String))
+            throw new IllegalArgumentException("invalid " + field);
+        return (String) value;
+    }
+
+    private static boolean isTrue(String value) {
+        return value != null && !value.equals("0") && !value.equalsIgnoreCase("false");
+    }
+
+    private static int maxSeq(List<Entry> entries) {
+        int seq = 0;
+        for (Entry entry : entries) {
+            if (entry != null)
+                seq = Math.max(seq, entry.seq());
+        }
+        return seq;
+    }
+
+    private static double now() {
+        return System.currentTimeMillis() / 1000.0;
+    }
+
+    private static String encodeEntry(Entry entry) {
+        return "{\"id\":" + entry.id()
+                + ",\"title\":" + Json.quote(entry.title())
+                + ",\"notes\":" + (entry.notes() != null ? Json.quote(entry.notes()) : "null")
+                + ",\"complete\":" + entry.complete()
+                + ",\"created\":" + number(entry.created())
+                + ",\"modified\":" + number(entry.modified())
+                + ",\"deleted\":" + entry.deleted()
+                + ",\"seq\":" + entry.seq() + "}";
+    }
+
+    private static String encodeList(int seq, List<Entry> entries) {
+        StringBuilder json = new StringBuilder("{\"timestamp\":").append(seq).append(",\"entries\":[");
+        for (int i = 0; i < entries.size(); i++) {
+            if (i > 0)
+                json.append(',');
+            json.append(entries.get(i) != null ? encodeEntry(entries.get(i)) : "null");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String encodeCompactList(int seq, List<Entry> entries) {
+        StringBuilder rows = new StringBuilder();
+        StringBuilder deleted = new StringBuilder();
+        for (Entry entry : entries) {
+            if (entry.deleted()) {
+                deleted.append(deleted.length() > 0 ? "," : "")
+                        .append('[').append(entry.id()).append(',').append(number(entry.modified()))
+                        .append(',').append(entry.seq()).append(']');
+                continue;
+            }
+
+            rows.append(rows.length() > 0 ? "," : "")
+                    .append('[').append(entry.id()).append(',').append(Json.quote(entry.title()))
+                    .append(',').append(number(entry.created())).append(',').append(number(entry.modified()))
+                    .append(',').append(entry.seq());
+            // Trailing notes and complete values that are defaults are trimmed
+            if (entry.notes() != null && !entry.notes().isEmpty() || entry.complete())
+                rows.append(',').append(entry.notes() != null ? Json.quote(entry.notes()) : "null");
+            if (entry.complete())
+                rows.append(",1");
+            rows.append(']');
+        }
+
+        StringBuilder json = new StringBuilder("{\"timestamp\":").append(seq)
+                .append(",\"fields\":[\"id\",\"title\",\"created\",\"modified\",\"seq\",\"notes\",\"complete\"]")
+                .append(",\"entries\":[").append(rows).append(']');
+        if (deleted.length() > 0)
+            json.append(",\"deleted\":[").append(deleted).append(']');
+        return json.append('}').toString();
+    }
+
+    private static String number(double value) {
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        exchange.getResponseHeaders().set("Content-type", "application/json");
+        send(exchange, status, json);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
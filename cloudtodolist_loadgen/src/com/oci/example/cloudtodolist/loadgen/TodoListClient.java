@@ -0,0 +1,101 @@
+package com.oci.example.cloudtodolist.loadgen;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Sends the requests the browser client sends, with the same headers, as one
+ * user. The user is logged in with the development server's login cookie,
+ * which the stand-in server reads too.
+ */
+final class TodoListClient {
+
+    static final String COMPACT_CONTENT_TYPE = "application/x-todolist-compact+json";
+
+    private static final String ACCEPT = COMPACT_CONTENT_TYPE + ", application/json";
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    record Response(int status, String body, String etag) {
+        boolean isOk() {
+            return status >= 200 && status < 300 || status == 304;
+        }
+    }
+
+    private final HttpClient http;
+    private final URI baseUri;
+    private final String loginCookie;
+
+    TodoListClient(HttpClient http, URI baseUri, String email, String userId) {
+        this.http = http;
+        this.baseUri = baseUri;
+        this.loginCookie = "dev_appserver_login=" + email + ":False:" + userId;
+    }
+
+    /**
+     * Gets the full list, or the changes since a sequence number if it isn't 0
+     */
+    Response getEntries(double since, String etag) throws IOException, InterruptedException {
+        String path = "/todolist/entries";
+        if (since > 0)
+            path += "?since=" + (long) since;
+        HttpRequest.Builder request = request(path).GET();
+        if (since > 0 && etag != null)
+            request.header("If-None-Match", etag);
+        return send(request);
+    }
+
+    Response postBatch(String json) throws IOException, InterruptedException {
+        return send(request("/todolist/entries/batch")
+                .header("Content-type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json)));
+    }
+
+    Response postDelete(String json) throws IOException, InterruptedException {
+        return send(request("/todolist/entries/delete")
+                .header("Content-type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json)));
+    }
+
+    /**
+     * Creates an entry with the single entry protocol
+     */
+    Response postEntry(String title) throws IOException, InterruptedException {
+        return send(request("/todolist/entries?title=" + encode(title))
+                .POST(HttpRequest.BodyPublishers.noBody()));
+    }
+
+    /**
+     * Updates an entry with the single entry protocol, e.g. with 'complete' and '1'
+     */
+    Response putEntry(int id, String field, String value) throws IOException, InterruptedException {
+        return send(request("/todolist/entries/" + id + "?" + field + "=" + encode(value))
+                .PUT(HttpRequest.BodyPublishers.noBody()));
+    }
+
+    Response getUpdateChannel() throws IOException, InterruptedException {
+        return send(request("/todolist/update_channel").GET());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path))
+                .timeout(TIMEOUT)
+                .header("Accept", ACCEPT)
+                .header("Cookie", loginCookie);
+    }
+
+    private Response send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        HttpResponse<String> response = http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        return new Response(response.statusCode(), response.body(),
+                response.headers().firstValue("ETag").orElse(null));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
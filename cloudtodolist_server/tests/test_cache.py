@@ -0,0 +1,59 @@
+""" Offline tests of the entry list response cache
+
+    Run with the App Engine SDK on the PYTHONPATH:
+
+        python tests/test_cache.py
+"""
+
+import os
+import sys
+import unittest
+
+sys.path.insert(0, os.path.join(os.path.dirname(__file__), ".."))
+
+import todolist_cache
+from todolist_cache import *
+
+
+class ResponseCacheTest(unittest.TestCase):
+
+    def setUp(self):
+        use_local_backend()
+
+    def test_cached_response_is_returned_at_the_same_seq(self):
+        cache_response(entry_list_key("user1", 5, 0, [], "json"), "BODY")
+        self.assertEqual(get_cached_response(entry_list_key("user1", 5, 0, [], "json")), "BODY")
+
+    def test_change_makes_cached_response_unreachable(self):
+        cache_response(entry_list_key("user1", 5, 0, [], "json"), "BODY")
+        self.assertEqual(get_cached_response(entry_list_key("user1", 6, 0, [], "json")), None)
+
+    def test_responses_are_cached_per_request(self):
+        cache_response(entry_list_key("user1", 5, 0, [], "json"), "ALL")
+        cache_response(entry_list_key("user1", 5, 3, [], "json"), "SINCE")
+        cache_response(entry_list_key("user1", 5, 0, [1, 2], "json"), "IDS")
+        cache_response(entry_list_key("user1", 5, 0, [], "compact"), "COMPACT")
+        self.assertEqual(get_cached_response(entry_list_key("user1", 5, 0, [], "json")), "ALL")
+        self.assertEqual(get_cached_response(entry_list_key("user1", 5, 3, [], "json")), "SINCE")
+        self.assertEqual(get_cached_response(entry_list_key("user1", 5, 0, [1, 2], "json")), "IDS")
+        self.assertEqual(get_cached_response(entry_list_key("user1", 5, 0, [], "compact")), "COMPACT")
+        self.assertEqual(get_cached_response(entry_list_key("user2", 5, 0, [], "json")), None)
+
+    def test_large_response_is_not_cached(self):
+        key = entry_list_key("user1", 5, 0, [], "json")
+        cache_response(key, "x" * (max_cached_response_size + 1))
+        self.assertEqual(get_cached_response(key), None)
+
+    def test_expired_response_is_dropped(self):
+        todolist_cache.backend.set("response_key", "BODY", -1)
+        self.assertEqual(get_cached_response("key"), None)
+
+    def test_not_modified_only_at_the_current_seq(self):
+        self.assertTrue(is_not_modified(entry_list_etag(5), 5))
+        self.assertFalse(is_not_modified(entry_list_etag(5), 6))
+        self.assertFalse(is_not_modified(None, 5))
+        self.assertFalse(is_not_modified("5", 5))
+
+
+if __name__ == "__main__":
+    unittest.main()
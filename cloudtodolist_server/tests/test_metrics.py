@@ -0,0 +1,53 @@
+""" Offline tests of the metrics beacon parsing
+
+    Run with the App Engine SDK and its Django library on the PYTHONPATH:
+
+        python tests/test_metrics.py
+"""
+
+import os
+import sys
+import unittest
+
+sys.path.insert(0, os.path.join(os.path.dirname(__file__), ".."))
+
+from django.utils import simplejson as json
+
+from todolist_metrics import *
+
+
+def beacon(*histograms):
+    return json.dumps({"histograms": [{"name": name, "size": size, "counts": counts}
+                                      for name, size, counts in histograms]})
+
+
+class ParseBeaconTest(unittest.TestCase):
+
+    def test_client_histograms_are_parsed(self):
+        parsed = parse_beacon(beacon(("render", 100, {"5": 3, "10": 1}),
+                                     ("request GET /todolist/entries", 10, {"60000": 2})))
+        self.assertEqual(parsed, [("render", 100, {5: 3, 10: 1}),
+                                  ("request GET /todolist/entries", 10, {60000: 2})])
+
+    def test_unknown_names_and_sizes_are_dropped(self):
+        parsed = parse_beacon(beacon(("render", 100, {"5": 1}),
+                                     ("made up", 100, {"5": 1}),
+                                     ("request GET /todolist/entries/12345", 100, {"5": 1}),
+                                     ("render", 101, {"5": 1}),
+                                     ("render", 1, {"5": 1})))
+        self.assertEqual(parsed, [("render", 100, {5: 1})])
+
+    def test_unknown_bounds_are_dropped(self):
+        parsed = parse_beacon(beacon(("render", 100, {"5": 1, "6": 1, "123456": 1}),
+                                     ("merge", 100, {"4": 1})))
+        self.assertEqual(parsed, [("render", 100, {5: 1})])
+
+    def test_invalid_beacons_are_rejected(self):
+        self.assertRaises(ValueError, parse_beacon, "{}")
+        self.assertRaises(ValueError, parse_beacon, beacon(("render", 100, {"5": -1})))
+        self.assertRaises(ValueError, parse_beacon, beacon(("render", "big", {"5": 1})))
+        self.assertRaises(ValueError, parse_beacon, beacon(*[("render", 100, {"5": 1})] * (max_beacon_histograms + 1)))
+
+
+if __name__ == "__main__":
+    unittest.main()
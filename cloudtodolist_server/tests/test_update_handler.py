@@ -0,0 +1,72 @@
+""" Offline tests of the update channel fan out
+
+    Run with the App Engine SDK and its Django library on the PYTHONPATH:
+
+        python tests/test_update_handler.py
+"""
+
+import os
+import sys
+import unittest
+
+sys.path.insert(0, os.path.join(os.path.dirname(__file__), ".."))
+
+from django.utils import simplejson as json
+
+import todolist_update_handler
+from todolist_update_handler import *
+
+
+def entry(id, seq, title="ENTRY"):
+    return {"id": id, "title": title, "seq": seq, "deleted": False}
+
+
+class UpdateFanoutTest(unittest.TestCase):
+
+    def setUp(self):
+        use_local_services()
+        self.clients = ["user1_10.0.0.1_1.0_compact", "user1_10.0.0.2_2.0_compact"]
+        for client_id in self.clients:
+            add_update_client(client_id)
+
+    def test_clients_are_registered_per_user(self):
+        add_update_client("user2_10.0.0.3_3.0_json")
+        self.assertEqual(sorted(get_update_clients("user1")), sorted(self.clients))
+        self.assertEqual(get_update_clients("user2"), ["user2_10.0.0.3_3.0_json"])
+
+        remove_update_client(self.clients[0])
+        self.assertEqual(get_update_clients("user1"), [self.clients[1]])
+
+    def test_updates_are_sent_in_one_message_per_client(self):
+        send_update("user1", [entry(1, 1)])
+        send_update("user1", [entry(2, 2)])
+        self.assertEqual(todolist_update_handler.updates.fanouts, 2)
+
+        leased, user_entries = lease_updates()
+        self.assertEqual(len(leased), 2)
+        self.assertEqual(user_entries.keys(), ["user1"])
+        self.assertEqual([e["id"] for e in user_entries["user1"]], [1, 2])
+
+        message = json.dumps(user_entries["user1"])
+        for client_id in get_update_clients("user1"):
+            send_messages(client_id, [message])
+        finish_updates(leased)
+
+        sent = todolist_update_handler.updates.sent
+        self.assertEqual(sorted(sent.keys()), sorted(self.clients))
+        for client_id in self.clients:
+            self.assertEqual(len(sent[client_id]), 1)
+            self.assertEqual([e["id"] for e in json.loads(sent[client_id][0])], [1, 2])
+        self.assertEqual(lease_updates(), ([], {}))
+
+    def test_updates_of_an_entry_are_merged_by_seq(self):
+        send_update("user1", [entry(1, 3, "NEWER")])
+        send_update("user1", [entry(1, 2, "OLDER"), entry(2, 1)])
+
+        leased, user_entries = lease_updates()
+        self.assertEqual([(e["id"], e["title"]) for e in user_entries["user1"]],
+                         [(2, "ENTRY"), (1, "NEWER")])
+
+
+if __name__ == "__main__":
+    unittest.main()
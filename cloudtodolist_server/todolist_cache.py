@@ -0,0 +1,109 @@
+""" Response cache for the Todo List
+  ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    Copyright (C) 2011  Object Computing Inc
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+  ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    Entry list responses are cached under the sequence number of the user's
+    last change, so a change makes the cached responses unreachable rather
+    than stale. The sequence number is also the response's ETag, so a client
+    holding it is answered with a 304(not modified) instead.
+
+    Responses are kept in memcache. The local backend is an in-process
+    stand-in for memcache, used when running and testing without App Engine
+    services.
+"""
+
+import logging
+from time import time
+
+from google.appengine.api import memcache
+
+
+# Duration to cache a response for
+response_cache_duration = 600 # 10 minutes
+
+# Largest response body cached, memcache rejects values over 1MB
+max_cached_response_size = 1000000
+
+
+class MemcacheBackend(object):
+    """ Stores responses in memcache """
+
+    def get(self, key):
+        return memcache.get(key)
+
+    def set(self, key, value, duration=0):
+        try:
+            memcache.set(key, value, time=duration)
+        except ValueError, e:
+            logging.warning("Failed to cache '%s': %s"%(key, str(e)))
+
+
+class LocalBackend(object):
+    """ Stores responses in a dictionary of this process """
+
+    def __init__(self):
+        self.values = {}
+
+    def get(self, key):
+        value, expires = self.values.get(key, (None, 0))
+        if expires and expires < time():
+            del self.values[key]
+            return None
+        return value
+
+    def set(self, key, value, duration=0):
+        expires = 0
+        if duration:
+            expires = time() + duration
+        self.values[key] = (value, expires)
+
+
+backend = MemcacheBackend()
+
+
+def use_local_backend():
+    """ Replaces memcache with the in-process stand-in """
+    global backend
+    backend = LocalBackend()
+
+
+def entry_list_etag(seq):
+    """ Returns the ETag of an entry list response at a sequence number """
+    return '"%d"'%seq
+
+
+def is_not_modified(if_none_match, seq):
+    """ Returns whether a client sending the If-None-Match header already
+        has the entry list at the sequence number
+    """
+    return if_none_match == entry_list_etag(seq)
+
+
+def entry_list_key(user_id, seq, since, ids, format):
+    """ Returns the cache key of an entry list response """
+    return "%s_%d_%d_%s_%s"%(user_id, seq, since, ",".join([str(id) for id in ids]), format)
+
+
+def get_cached_response(key):
+    return backend.get("response_" + key)
+
+
+def cache_response(key, body):
+    """ Caches a response body, unless it's too large for memcache """
+    if len(body) > max_cached_response_size:
+        return
+    backend.set("response_" + key, body, response_cache_duration)
@@ -0,0 +1,178 @@
+from google.appengine.api import taskqueue
+from google.appengine.ext import db
+from django.utils import simplejson as json
+
+# Pull queue that holds the metrics beacons until they are aggregated
+metrics_queue = "metrics"
+
+# Largest number of beacons aggregated by one lease, and the largest
+#  number of histograms accepted in one beacon
+max_lease_beacons = 1000
+max_beacon_histograms = 100
+
+# Names the clients record metrics under, the list size buckets, and the
+#  bucket bounds, as in TodoListMetrics. Histograms of other names and sizes,
+#  and counts of other bounds, are dropped.
+metric_names = frozenset(["merge", "render", "decode.update", "decode.list", "channel.latency",
+                          "request GET /todolist/entries",
+                          "request POST /todolist/entries/batch",
+                          "request POST /todolist/entries/delete",
+                          "request GET /todolist/update_channel",
+                          "request POST /todolist/metrics"])
+metric_sizes = frozenset([10 ** i for i in range(1, 8)])
+metric_bounds = frozenset([1, 2, 3, 5, 7, 10, 15, 20, 30, 50, 70, 100, 150, 200, 300, 500, 700,
+                           1000, 1500, 2000, 3000, 5000, 7000, 10000, 15000, 20000, 30000, 60000])
+
+# Percentiles reported for each list size
+percentiles = (50, 90, 99, 99.9)
+
+
+class MetricHistogram(db.Model):
+    """
+    Data model for the client timings of one metric and list size bucket,
+    over one hour, keyed by name, size and hour. The counts are kept per
+    bucket upper bound, in milliseconds, in ascending order of the bounds.
+    """
+
+    name = db.StringProperty()
+    size = db.IntegerProperty()
+    hour = db.IntegerProperty()
+    bounds = db.ListProperty(int)
+    counts = db.ListProperty(int)
+
+    @staticmethod
+    def key_name_for(name, size, hour):
+        return "%s|%d|%d"%(name, size, hour)
+
+    def add(self, counts):
+        """ Adds a dictionary of bucket bound to count to the histogram """
+        merged = dict(zip(self.bounds, self.counts))
+        add_counts(merged, counts)
+        self.bounds = sorted(merged.keys())
+        self.counts = [merged[bound] for bound in self.bounds]
+
+
+class TaskQueueBeacons(object):
+    """ Queues beacons in a pull queue """
+
+    def add(self, payload):
+        taskqueue.Queue(metrics_queue).add(taskqueue.Task(payload=payload, method="PULL"))
+
+    def lease(self):
+        tasks = taskqueue.Queue(metrics_queue).lease_tasks(60, max_lease_beacons)
+        return tasks, [task.payload for task in tasks]
+
+    def finish(self, tasks):
+        if tasks:
+            taskqueue.Queue(metrics_queue).delete_tasks(tasks)
+
+
+beacons = TaskQueueBeacons()
+
+
+def add_counts(counts, more_counts):
+    for bound, count in more_counts.items():
+        counts[bound] = counts.get(bound, 0) + count
+
+def parse_beacon(body):
+    """ Returns the histograms of a beacon as a list of (name, size, counts),
+        without those of unknown metrics or sizes, or the counts of unknown bounds
+
+        Raises ValueError if the beacon is invalid
+    """
+    try:
+        histograms = json.loads(body)["histograms"]
+        if len(histograms) > max_beacon_histograms:
+            raise ValueError("too many histograms")
+
+        parsed = []
+        for histogram in histograms:
+            name = histogram["name"]
+            size = int(histogram["size"])
+            if name not in metric_names or size not in metric_sizes:
+                continue
+            counts = {}
+            for bound, count in histogram["counts"].items():
+                if int(count) < 0:
+                    raise ValueError("invalid count")
+                if int(bound) in metric_bounds:
+                    counts[int(bound)] = int(count)
+            if counts:
+                parsed.append((name, size, counts))
+        return parsed
+    except (KeyError, TypeError, AttributeError),e:
+        raise ValueError(str(e))
+
+def queue_beacon(histograms, now):
+    """ Queues the histograms of a beacon, to be aggregated by hour of receipt """
+
+    beacons.add(json.dumps({"hour": int(now / 3600),
+                            "histograms": histograms},
+                           separators=(',',':')))
+
+def aggregate_beacons():
+    """ Leases the queued beacons and adds their histograms to the stored
+        histograms, each of which is written once. Returns the number of
+        beacons aggregated, a full lease may leave more queued.
+    """
+
+    leased, payloads = beacons.lease()
+    merged = {}
+    for payload in payloads:
+        beacon = json.loads(payload)
+        for name, size, counts in beacon["histograms"]:
+            key_name = MetricHistogram.key_name_for(name, size, beacon["hour"])
+            if key_name not in merged:
+                merged[key_name] = (name, size, beacon["hour"], {})
+            add_counts(merged[key_name][3], dict((int(bound), count) for bound, count in counts.items()))
+
+    for key_name, (name, size, hour, counts) in merged.items():
+        def add_tx():
+            histogram = MetricHistogram.get_by_key_name(key_name)
+            if not histogram:
+                histogram = MetricHistogram(key_name=key_name, name=name, size=size, hour=hour)
+            histogram.add(counts)
+            histogram.put()
+
+        db.run_in_transaction(add_tx)
+
+    beacons.finish(leased)
+    return len(leased)
+
+def percentile_bounds(counts):
+    """ Returns the bucket bound at each percentile of a dictionary of
+        bucket bound to count, i.e. the percentile is no more than it
+    """
+
+    total = sum(counts.values())
+    bounds = sorted(counts.keys())
+    result = {}
+    for percentile in percentiles:
+        rank = total * percentile / 100.0
+        seen = 0
+        for bound in bounds:
+            seen += counts[bound]
+            if seen >= rank:
+                result["p%g"%percentile] = bound
+                break
+    return result
+
+def get_percentiles(name, since_hour):
+    """ Returns the count and percentiles of a metric since an hour, per list size """
+
+    query = MetricHistogram.all()
+    query.filter("name =", name)
+    query.filter("hour >=", since_hour)
+
+    size_counts = {}
+    for histogram in query:
+        add_counts(size_counts.setdefault(histogram.size, {}),
+                   dict(zip(histogram.bounds, histogram.counts)))
+
+    sizes = []
+    for size in sorted(size_counts.keys()):
+        stats = percentile_bounds(size_counts[size])
+        stats["size"] = size
+        stats["count"] = sum(size_counts[size].values())
+        sizes.append(stats)
+    return sizes
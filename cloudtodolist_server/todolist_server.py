@@ -31,11 +31,15 @@
               "id": entry ID,
               "title": title of the Entry,
               "notes": notes associated with the entry,
-              "complete": flag indicating whether the entry is complete
+              "complete": flag indicating whether the entry is complete,
+              "seq": sequence number of the change that last wrote the entry
             }
         todolist_entry array
             {
-                timestamp: timestamp to be used in a get with a modified time
+                timestamp: sequence number of the last change included, to be used
+                           in a get with a since sequence
+                live: ids of all entries that are not deleted, only included
+                      when the deleted entries a client needs were compacted
                 entries:
                 [
                   {
@@ -54,9 +58,40 @@
                 ]
             }
 
+        compact todolist_entry array
+            Returned instead of a todolist_entry array when the request's Accept header
+            includes 'application/x-todolist-compact+json'.  Each entry is an array of
+            the values of 'fields', in order, with trailing default values omitted.
+            Deleted entries are only listed by id, modified time and sequence number.
+            {
+                "timestamp": sequence number to be used in a get with a since sequence,
+                "fields": ["id","title","created","modified","seq","notes","complete"],
+                "entries": [[1,"ENTRY",1317532850.83,1317532850.83,7,"NOTES",1], [2,"ENTRY",...], ...],
+                "deleted": [[3,1317532850.83,8], ...],
+                "live": [1,2,...]
+            }
+
+        Every change to a user's entries is stamped with the next number of that
+        user's change sequence, in the same transaction as the change.  Entries
+        written by one transaction share a sequence number.
+
+        Entries written before entries were stamped have no sequence number, and are
+        moved under their user, and stamped, by a migration task queued the first time
+        the user's full list is read.  Until then they are only included in full lists,
+        and in the live list of compacted lists.
+
+        Clients built before the change sequence still get their lists with a modified
+        query parameter, which is taken as the since sequence, or as a full list request
+        if it's a time ahead of the user's sequence.  Their update channels get one entry
+        per message, since they can't decode entry arrays.
+
+        Responses are encoded without whitespace. App Engine gzips them for clients
+        that accept gzip encoding.
+
     Status Codes:
         200(ok) - request was successful
         201(created) - new entry as been created
+        304(not modified) - no entries changed since the If-None-Match ETag
         400(bad request) - invalid query string
         410(gone) - entry does not exist
 
@@ -65,11 +100,14 @@
         cloudtodolist/entries - list of cloudtodolist entries
             GET
                 Format - todolist_entry array
-                Query Parameters = id,modified (e.g. '?id=1;id=3;id=5' or "?modified=1317532850.83)
+                Query Parameters = id,since (e.g. '?id=1;id=3;id=5' or "?since=42)
                     NOTE: Omitting the id parameter will retrieve all entries
-                    NOTE: When a modified flag is used, deleted entries may be returned with a
-                          deleted flag=true
-                Status Codes - 200,400
+                    NOTE: 'modified' is accepted in place of 'since' for older clients
+                    NOTE: When a since sequence is used, deleted entries may be returned with a
+                          deleted flag=true.  If deleted entries newer than the since sequence
+                          were compacted, only entries that are not deleted are returned, along
+                          with the live list
+                Status Codes - 200,304,400
 
             POST
                 Format - todolist_entry
@@ -80,7 +118,24 @@
                 Format - empty
                 Query Parameters = id (e.g. '?id=1' or '?id=1+2+5')
                 Status Codes - 200
-                
+
+        cloudtodolist/entries/batch - batch of entry creates and updates
+            POST
+                Format - todolist_entry array, with one entry per operation, in order.
+                         The entry is null for an update of an entry that does not exist
+                Body - {"batch": "BATCH", "ops": [{"id": 1, "complete": 1}, {"title": "ENTRY", "notes": "NOTES"}, ...]}
+                    NOTE: Operations with an id update that entry, all others create a new entry
+                    NOTE: A batch resent with the same batch id returns the original response,
+                          without applying the batch again
+                Status Codes - 200,400
+
+        cloudtodolist/entries/delete - bulk delete of entries
+            POST
+                Format - todolist_entry array of the entries deleted
+                Body - {"ids": [1, 3, 5, ...]}
+                    NOTE: Ids of entries that do not exist, or are already deleted, are ignored
+                Status Codes - 200,400
+
         cloudtodolist/entries/<id> - single cloudtodolist entry, referenced by entry id
             GET
                 Format - todolist_entry
@@ -94,6 +149,20 @@
             DELETE
                 Format - empty
                 Status Codes - 200
+
+        cloudtodolist/metrics - client timing histograms
+            POST
+                Format - empty
+                Body - {"histograms": [{"name": "render", "size": 100, "counts": {"5": 3, "10": 1}}, ...]}
+                    NOTE: size is the list size bucket, and counts maps each bucket upper
+                          bound, in milliseconds, to the number of timings in the bucket
+                Status Codes - 204,400
+
+            GET (admins only)
+                Format - {"name": "render", "hours": 24, "sizes": [{"size": 100, "count": 4,
+                          "p50": 5, "p90": 10, "p99": 10, "p99.9": 10}, ...]}
+                Query Parameters = name,hours (e.g. '?name=render;hours=24')
+                Status Codes - 200,400,403
                 
 """
 
@@ -105,6 +174,8 @@ use_library('django', '1.2')
 
 from google.appengine.ext.webapp import template
 from google.appengine.api import users
+from google.appengine.api import memcache
+from google.appengine.api import taskqueue
 from google.appengine.api.datastore import Key
 from google.appengine.ext import webapp
 from google.appengine.ext.webapp.util import run_wsgi_app
@@ -112,6 +183,8 @@ from google.appengine.ext import db
 from django.utils import simplejson as json
 
 from todolist_update_handler import *
+from todolist_cache import *
+from todolist_metrics import *
 
 
 __author__ = "Jeff Clyne"
@@ -129,14 +202,165 @@ templates="todolist/templates/"
 
 # Make duration to archive deleted entries. The deleted
 #  entries are necessary for Gets on the entrylist with a
-#  modified time
+#  since sequence, clients that synced before deleted entries
+#  were purged get a compacted list instead
 archive_duration = 86400.0 # 24 hours
 
+# Duration to remember the response to a batch request, so that
+#  a client resending a batch doesn't apply it twice
+batch_response_duration = 3600 # 1 hour
+
+# Accept header value a client sends to receive compact responses
+#  and update channel messages
+compact_content_type = "application/x-todolist-compact+json"
+
+# Largest update channel message, larger updates are split
+#  over several messages
+max_message_size = 32768
+
+# Largest number of entities in a datastore batch operation
+max_batch_size = 500
+
+# Time a clean archive run may take before it continues in a new task
+clean_archive_budget = 30.0 # seconds
+
+# URL of the task that moves a user's entries written before entries had
+#  a user parent under the user
+migrate_entries_url = "/todolist/tasks/migrate_entries"
+
+# Number of entry ids reserved at a time for a user, and the
+#  largest number of users an instance keeps reserved ids for
+id_block_size = 20
+max_id_block_users = 1000
+
+# Order of the entry values in the compact format
+compact_fields = ("id", "title", "created", "modified", "seq", "notes", "complete")
+
 # Global timestamp that can be referenced anywhere in the package and is
 #  updated by the update_timestamp method decorator
 now = time()
 
 
+class TodolistUser(db.Model):
+    """
+    Data model for the change sequence of a user, keyed by user id.
+    The user is the parent of all their entries, so that an entry and the
+    sequence number stamped on it are written in one transaction.
+    """
+
+    seq = db.IntegerProperty(required=True, default=0)
+    purged_seq = db.IntegerProperty(required=True, default=0)
+    migrated = db.BooleanProperty(required=True, default=False)
+    migration_queued = db.BooleanProperty(required=True, default=False)
+
+    @staticmethod
+    def key_for(user_id):
+        return Key.from_path("TodolistUser", user_id)
+
+    @classmethod
+    def mark_migrated(cls, user_id):
+        """ Records that the user has no entries left without a user parent """
+
+        def mark_migrated_tx():
+            todolist_user = cls.get_by_key_name(user_id)
+            if not todolist_user:
+                todolist_user = cls(key_name=user_id)
+            if not todolist_user.migrated:
+                todolist_user.migrated = True
+                todolist_user.put()
+
+        db.run_in_transaction(mark_migrated_tx)
+
+    @classmethod
+    def queue_migration(cls, user_id):
+        """ Queues the migration of the user's entries without a user parent,
+            unless it was already queued. The task is added in the same
+            transaction that marks it queued, so it is queued once.
+        """
+
+        def queue_migration_tx():
+            todolist_user = cls.get_by_key_name(user_id)
+            if not todolist_user:
+                todolist_user = cls(key_name=user_id)
+            if not todolist_user.migrated and not todolist_user.migration_queued:
+                todolist_user.migration_queued = True
+                todolist_user.put()
+                taskqueue.add(url=migrate_entries_url, method="GET", params={"user_id": user_id},
+                              transactional=True)
+
+        db.run_in_transaction(queue_migration_tx)
+
+    @classmethod
+    def next_seq(cls, user_id):
+        """
+        Returns the user with the next sequence number in 'seq', which must be
+        put in the same transaction as the entries stamped with it
+        """
+        todolist_user = cls.get_by_key_name(user_id)
+        if not todolist_user:
+            todolist_user = cls(key_name=user_id)
+        todolist_user.seq += 1
+        return todolist_user
+
+    @classmethod
+    def purge(cls, user_key, keys):
+        """
+        Deletes the deleted entries of a user with the specified keys for good,
+        recording the highest sequence number purged. Clients that synced before
+        it are sent a compacted list, since they may have missed the purged
+        deletions. Returns the number of entries deleted.
+        """
+
+        if not user_key:
+            # Entries written before entries had a user parent
+            db.delete(keys)
+            return len(keys)
+
+        def purge_tx():
+            entries = [entry for entry in db.get(keys) if entry and entry.deleted]
+            if not entries:
+                return 0
+
+            todolist_user = db.get(user_key)
+            if todolist_user:
+                todolist_user.purged_seq = max([todolist_user.purged_seq] + [e.seq for e in entries])
+                todolist_user.put()
+            db.delete(entries)
+            return len(entries)
+
+        return db.run_in_transaction(purge_tx)
+
+
+def entry_key(user_id, id):
+    """  Returns the key of an entry of the specified user"""
+    return Key.from_path("TodolistUser", user_id, "TodolistEntry", int(id))
+
+
+class EntryIdAllocator(object):
+    """
+    Hands out entry ids from blocks reserved with the datastore id allocator,
+    so an entry is created with its final key in a single write. Blocks are
+    reserved per user, since entry ids are allocated under the user parent,
+    and cached by this instance. Ids left in a block when the instance goes
+    away are never used, which only leaves gaps.
+    """
+
+    def __init__(self):
+        self.blocks = {}
+
+    def next_id(self, user_id):
+        first, last = self.blocks.get(user_id, (1, 0))
+        if first > last:
+            if len(self.blocks) >= max_id_block_users:
+                self.blocks.clear()
+            first, last = db.allocate_ids(entry_key(user_id, 1), id_block_size)
+        self.blocks[user_id] = (first + 1, last)
+        return first
+
+
+entry_ids = EntryIdAllocator()
+
+
 class TodolistEntry(db.Model):
     """
     Data model for a TodoList Entry
@@ -152,21 +376,23 @@ class TodolistEntry(db.Model):
     created = db.FloatProperty(required=True)
     modified = db.FloatProperty(required=True)
     deleted = db.BooleanProperty(required=True, default=False)
+    seq = db.IntegerProperty(required=True, default=0)
 
     @staticmethod
     def create(title, notes=None, complete=None):
         """
         Creates a new entry with the specified title and optional values
-        The item is created and then the generated ID from the key is stored
-        in the 'id' field. This is done atomically in a transaction to guarantee that
-        the 'id' field is never 0.
+        The id is reserved ahead of time, so the entry is stored with its key
+        and 'id' field set in a single write, and the 'id' field is never 0.
         """
         user = users.get_current_user()
         if not user:
             return None
 
+        id = entry_ids.next_id(user.user_id())
         entry = TodolistEntry(
-            id=0,
+            key=entry_key(user.user_id(), id),
+            id=id,
             title=title,
             user_id=user.user_id(),
             created=now,
@@ -174,12 +400,12 @@ class TodolistEntry(db.Model):
         if notes: entry.notes = notes
         if complete: entry.complete = not int(complete) == 0
 
-        def put_and_update_id_tx():
-            entry.id = entry.put().id()
-            return entry.put()
-
+        def put_tx():
+            todolist_user = TodolistUser.next_seq(entry.user_id)
+            entry.seq = todolist_user.seq
+            db.put([entry, todolist_user])
 
-        put_and_update_id_tx()
+        db.run_in_transaction(put_tx)
         return entry
 
     @classmethod
@@ -189,23 +415,22 @@ class TodolistEntry(db.Model):
         This will atomically update only the specified fields and update
         the modified time.
         """
-
-
+        user = users.get_current_user()
+        if not user:
+            return None
 
         def update_tx():
-            user = users.get_current_user()
-            entry = db.get(Key.from_path(cls.__name__, int(id)))
+            entry = db.get(entry_key(user.user_id(), id))
             if not entry or entry.deleted:
                 return None
 
-            if not user or entry.user_id != user.user_id():
-                return None
-
+            todolist_user = TodolistUser.next_seq(entry.user_id)
+            entry.seq = todolist_user.seq
             entry.modified = now
             if title: entry.title = title
             if notes: entry.notes = notes
             if complete: entry.complete = not int(complete) == 0
-            entry.put()
+            db.put([entry, todolist_user])
             return entry
 
         return db.run_in_transaction(update_tx)
@@ -218,23 +443,246 @@ class TodolistEntry(db.Model):
         cron job will delete all marked entries that are older than the
         archival cutoff time.   This will also update the modified time.
         """
+        user = users.get_current_user()
+        if not user:
+            return None
 
         def mark_deleted_tx():
-            user = users.get_current_user()
-            entry = db.get(Key.from_path(cls.__name__, int(id)))
+            entry = db.get(entry_key(user.user_id(), id))
             if not entry or entry.deleted:
                 return  None
 
-            if not user or entry.user_id != user.user_id():
-                return None
-
+            todolist_user = TodolistUser.next_seq(entry.user_id)
+            entry.seq = todolist_user.seq
             entry.modified = now
             entry.deleted = True
-            entry.put()
+            db.put([entry, todolist_user])
             return entry
 
         return db.run_in_transaction(mark_deleted_tx)
 
+    @classmethod
+    def mark_deleted_batch(cls, ids=None):
+        """
+        Marks the entries with the specified ids deleted, or all of the current
+        user's entries if ids is None, in a single transaction that stamps them
+        all with one sequence number. Returns the entries marked deleted.
+        """
+        user = users.get_current_user()
+        if not user:
+            return None
+
+        user_id = user.user_id()
+
+        def mark_deleted_batch_tx():
+            if ids is None:
+                query = cls.all().ancestor(TodolistUser.key_for(user_id))
+                query.filter("deleted =", False)
+                entries = tuple(query)
+            else:
+                keys = [entry_key(user_id, id) for id in set(ids)]
+                entries = []
+                for i in range(0, len(keys), max_batch_size):
+                    entries.extend(db.get(keys[i:i + max_batch_size]))
+                entries = [entry for entry in entries if entry and not entry.deleted]
+            if not entries:
+                return []
+
+            todolist_user = TodolistUser.next_seq(user_id)
+            for entry in entries:
+                entry.seq = todolist_user.seq
+                entry.modified = now
+                entry.deleted = True
+            for i in range(0, len(entries), max_batch_size):
+                db.put(entries[i:i + max_batch_size])
+            todolist_user.put()
+            return entries
+
+        return db.run_in_transaction(mark_deleted_batch_tx)
+
+
+    @classmethod
+    def apply_batch(cls, ops):
+        """
+        Applies a list of create and update operations, each a dictionary of
+        the fields to set. Operations with an 'id' update the existing entry,
+        all others create a new one. The entries are read and written in
+        datastore batches, in a single transaction that stamps them all
+        with one sequence number.
+        Returns the resulting entries, in the order of the operations, with None
+        for updates of entries that don't exist.
+        """
+        user = users.get_current_user()
+        if not user:
+            return None
+
+        user_id = user.user_id()
+        ids = set([int(op["id"]) for op in ops if "id" in op and int(op["id"]) > 0])
+        created_ids = [entry_ids.next_id(user_id) for op in ops if "id" not in op]
+
+        def apply_batch_tx():
+            todolist_user = TodolistUser.next_seq(user_id)
+            existing = {}
+            if ids:
+                for entry in db.get([entry_key(user_id, id) for id in ids]):
+                    if entry and not entry.deleted:
+                        existing[entry.id] = entry
+
+            results = []
+            updated = {}
+            created = []
+            for op in ops:
+                if "id" in op:
+                    entry = existing.get(int(op["id"]), None)
+                    if entry:
+                        entry.modified = now
+                        updated[entry.id] = entry
+                else:
+                    id = created_ids[len(created)]
+                    entry = TodolistEntry(
+                        key=entry_key(user_id, id),
+                        id=id,
+                        title=op.get("title", None),
+                        user_id=user_id,
+                        created=now,
+                        modified=now)
+                    created.append(entry)
+
+                if entry:
+                    entry.seq = todolist_user.seq
+                    if op.get("title", None): entry.title = op["title"]
+                    if "notes" in op: entry.notes = op["notes"] or None
+                    if "complete" in op: entry.complete = not int(op["complete"]) == 0
+                results.append(entry)
+
+            if updated or created:
+                db.put(updated.values() + created + [todolist_user])
+            return results
+
+        return db.run_in_transaction(apply_batch_tx)
+
+    @classmethod
+    def get_unmigrated(cls, user_id):
+        """
+        Returns the user's entries that aren't deleted and were written before
+        entries had a user parent, sorted by created time. Their keys are read
+        first, so the user's migrated entries aren't fetched.
+        """
+        query = cls.all(keys_only=True)
+        query.filter("user_id =", user_id)
+        keys = [key for key in query if not key.parent()]
+
+        entries = []
+        for i in range(0, len(keys), max_batch_size):
+            entries.extend(db.get(keys[i:i + max_batch_size]))
+        entries = [entry for entry in entries if entry and not entry.deleted]
+        entries.sort(key=lambda entry: entry.created)
+        return entries
+
+    @classmethod
+    def migrate(cls, entry):
+        """
+        Moves an entry written before entries had a user parent under its
+        user, stamped with the user's next sequence number, and deletes the
+        original in the same cross group transaction. The entry keeps its id,
+        unless the id may already be used under the user. Deleted entries
+        are only deleted. Returns the migrated entry, or None.
+        """
+        if entry.deleted:
+            db.delete(entry)
+            return None
+
+        user_id = entry.user_id
+        id = entry.key().id()
+        if db.allocate_id_range(entry_key(user_id, 1), id, id) != db.KEY_RANGE_EMPTY:
+            id = db.allocate_ids(entry_key(user_id, 1), 1)[0]
+
+        def migrate_tx():
+            original = db.get(entry.key())
+            if not original:
+                return None
+
+            todolist_user = TodolistUser.next_seq(user_id)
+            migrated = TodolistEntry(
+                key=entry_key(user_id, id),
+                id=id,
+                title=original.title,
+                notes=original.notes,
+                complete=original.complete,
+                user_id=user_id,
+                created=original.created,
+                modified=original.modified,
+                seq=todolist_user.seq)
+            db.put([migrated, todolist_user])
+            db.delete(original)
+            return migrated
+
+        return db.run_in_transaction_options(db.create_transaction_options(xg=True), migrate_tx)
+
+    @classmethod
+    def list_changes(cls, user_id, since=0, ids=None):
+        """
+        Returns the sequence number of the user's last change, the entries
+        changed after the 'since' sequence number, and the ids of the
+        entries that aren't deleted if deleted entries the caller needs were
+        already purged, otherwise None. A 'since' of 0 returns all entries
+        that aren't deleted. The sequence number and the entries are read
+        in one transaction, so they are a consistent snapshot.
+
+        Until the user's entries written before entries had a user parent are
+        migrated, they are added to full lists and live lists, and the migration
+        is queued. Once it is queued, lists no longer look for them, since the
+        migration sends the migrated entries to the clients as updates.
+        """
+        parent = TodolistUser.key_for(user_id)
+
+        def list_changes_tx():
+            todolist_user = db.get(parent)
+            seq = 0
+            purged_seq = 0
+            migrated = False
+            if todolist_user:
+                seq = todolist_user.seq
+                purged_seq = todolist_user.purged_seq
+                migrated = todolist_user.migrated or todolist_user.migration_queued
+
+            live = None
+            query = cls.all().ancestor(parent)
+            if not since:
+                query.filter("deleted =", False)
+                query.order("created")
+            else:
+                query.filter("seq >", since)
+                if since < purged_seq:
+                    query.filter("deleted =", False)
+                    live_query = cls.all(keys_only=True).ancestor(parent)
+                    live_query.filter("deleted =", False)
+                    live = [key.id() for key in live_query]
+                    if ids:
+                        live = [id for id in live if id in ids]
+
+            if ids:
+                query.filter("id IN", ids)
+
+            return seq, tuple(query), live, migrated
+
+        seq, entries, live, migrated = db.run_in_transaction(list_changes_tx)
+        if not migrated and (not since or live is not None):
+            # Only entries without a user parent left mark the user migrated,
+            #  not just those of the requested ids
+            unmigrated = cls.get_unmigrated(user_id)
+            if not unmigrated:
+                TodolistUser.mark_migrated(user_id)
+            else:
+                TodolistUser.queue_migration(user_id)
+                if ids:
+                    unmigrated = [entry for entry in unmigrated if entry.id in ids]
+                if not since:
+                    entries = tuple(sorted(entries + tuple(unmigrated), key=lambda entry: entry.created))
+                else:
+                    live = live + [entry.id for entry in unmigrated]
+
+        return seq, entries, live
 
     def to_dict(self):
         """
@@ -247,7 +695,8 @@ class TodolistEntry(db.Model):
                 "complete": self.complete,
                 "created": self.created,
                 "modified": self.modified,
-                "deleted": self.deleted}
+                "deleted": self.deleted,
+                "seq": self.seq}
 
 
 
@@ -269,7 +718,72 @@ def update_timestamp(method):
 
 def encode_json(data):
     """  Encodes the specfied data structure into JSON"""
-    return json.dumps(data, indent=2)
+    return json.dumps(data, separators=(',',':'))
+
+
+def request_format(request):
+    """  Returns the response format the request accepts, 'compact' or 'json'"""
+    if compact_content_type in request.headers.get("Accept", ""):
+        return "compact"
+    return "json"
+
+
+def max_seq(entries):
+    """  Returns the highest sequence number of the entries, skipping None"""
+    return max([0] + [entry.seq for entry in entries if entry])
+
+
+def encode_entry_list(seq, entries, format="json", live=None):
+    """  Encodes a todolist_entry array, or a compact todolist_entry array,
+        of entry dictionaries
+    """
+    if format != "compact":
+        data = {"timestamp": seq, "entries": tuple(entries)}
+        if live is not None:
+            data["live"] = live
+        return encode_json(data)
+
+    rows = []
+    deleted = []
+    for entry in entries:
+        if entry["deleted"]:
+            deleted.append((entry["id"], entry["modified"], entry["seq"]))
+        else:
+            row = [entry["id"], entry["title"], entry["created"], entry["modified"], entry["seq"],
+                   entry["notes"], int(entry["complete"])]
+            # trim trailing notes and complete values that are defaults
+            while len(row) > 5 and not row[-1]:
+                row.pop()
+            rows.append(row)
+
+    data = {"timestamp": seq, "fields": compact_fields, "entries": rows}
+    if deleted:
+        data["deleted"] = deleted
+    if live is not None:
+        data["live"] = live
+    return encode_json(data)
+
+
+def update_messages(entries):
+    """  Returns a function that encodes the update channel messages for
+        the specified entry dictionaries in a format. A single entry is sent
+        to clients of the json format as is, all other updates as one entry
+        array, split in halves until each part fits in a channel message.
+        Clients of the legacy format get every entry in its own message.
+    """
+    def encode(format, entries=list(entries)):
+        if format == "legacy":
+            return [encode_json(entry) for entry in entries]
+        if format != "compact" and len(entries) == 1:
+            return [encode_json(entries[0])]
+
+        message = encode_entry_list(max([entry["seq"] for entry in entries]), entries, format)
+        if len(message) <= max_message_size or len(entries) == 1:
+            return [message]
+        half = len(entries) // 2
+        return encode(format, entries[:half]) + encode(format, entries[half:])
+
+    return encode
 
 
 class MainPageHandler(webapp.RequestHandler):
@@ -282,6 +796,7 @@ class MainPageHandler(webapp.RequestHandler):
         if user:
             template_values = {
                 'username': user.nickname(),
+                'user_id': user.user_id(),
                 'url_logout': users.create_logout_url("/"),
             }
 
@@ -308,42 +823,65 @@ class EntryListHandler(webapp.RequestHandler):
             id - entry id to include in result
                 NOTE: this parameter can be specified multiple times
 
-            modified - include all entries modified after specified timestamp
-                NOTE: this should usually be a timestamp previously returned in a GET
-                NOTE:  since the archived "deleted" entries   are only saved for 24 hours,
-                       a modified  timestamp more than 24 hours in the past will fail
-                       with 400 status
+            since - include all entries changed after the specified sequence number
+                NOTE: this should usually be the timestamp returned in a previous GET
+                NOTE: if deleted entries changed after it were purged, only entries
+                      that aren't deleted are returned, along with the ids of all
+                      entries that aren't deleted in 'live'
+
+        Headers:
+            If-None-Match - ETag of the client's last entry list response
+                NOTE: the ETag is the sequence number of the user's last change
 
         Status Codes:
             200(ok) - ok, body includes the todolist_entry list
-            400(bad request) - invalid query string  specified
+            304(not modified) - no entries changed since the If-None-Match ETag
+            400(bad request) - invalid query string  specified, or a since
+                               sequence number ahead of the user's changes
         """
 
-        user = users.get_current_user()
-        ids = self.request.get_all("id")
-        modified = self.request.get("modified", None)
-
-        query = TodolistEntry.all()
-        query.filter("user_id = ",user.user_id())
+        user_id = users.get_current_user().user_id()
+        try:
+            ids = [int(id) for id in self.request.get_all("id")]
+            since = int(self.request.get("since", None) or 0)
+            modified = float(self.request.get("modified", None) or 0)
+        except ValueError,e:
+            logging.error("Invalid parameter in GET: "+str(e))
+            self.error(400)
+            return
 
-        if modified:
-            modified = float(modified)
-            if ( now - modified ) > archive_duration:
-                logging.error("Modified param '%f' is older than archive duration"%modified)
-                self.error(400)
-                return
+        todolist_user = TodolistUser.get_by_key_name(user_id)
+        seq = 0
+        if todolist_user:
+            seq = todolist_user.seq
 
-            query.filter("modified >", modified)
-            query.filter("modified <=", now)
-        else:
-            query.filter("deleted =", False)
-            query.order("created")
-
-        if ids:
-            query.filter("id IN", [int(id) for id in ids])
+        # Clients built before the change sequence pass the timestamp of their last
+        #  list as 'modified', which is a time if that list was read before it
+        if modified and not since and modified <= seq:
+            since = int(modified)
 
+        if since > seq:
+            logging.error("Since param '%d' is ahead of the last change '%d'"%(since, seq))
+            self.error(400)
+            return
+
+        if is_not_modified(self.request.headers.get("If-None-Match", None), seq):
+            self.response.set_status(304)
+            self.response.headers['ETag'] = entry_list_etag(seq)
+            return
+
+        format = request_format(self.request)
+        body = get_cached_response(entry_list_key(user_id, seq, since, ids, format))
+        if body is None:
+            # A change made since the sequence number was read is
+            #  included, so the response is tagged with the snapshot's
+            seq, entries, live = TodolistEntry.list_changes(user_id, since, ids)
+            body = encode_entry_list(seq, [entry.to_dict() for entry in entries], format, live)
+            cache_response(entry_list_key(user_id, seq, since, ids, format), body)
+
+        self.response.headers['ETag'] = entry_list_etag(seq)
         self.response.headers['Content-type'] = 'application/json'
-        body = encode_json({"timestamp": now, "entries": tuple([r.to_dict() for r in tuple(query)])})
+        self.response.headers['Vary'] = 'Accept'
         self.response.out.write(body)
 
     @update_timestamp
@@ -372,7 +910,7 @@ class EntryListHandler(webapp.RequestHandler):
             self.response.headers['Content-type'] = 'application/json'
             body = encode_json(entry.to_dict())
             self.response.out.write(body)
-            send_update(users.get_current_user().user_id(),body)
+            send_update(users.get_current_user().user_id(),[entry.to_dict()])
 
         except db.BadValueError,e:
             logging.error("Invalid parameter in POST: "+str(e))
@@ -394,17 +932,106 @@ class EntryListHandler(webapp.RequestHandler):
             200(ok) - ok, body is empty
         """
 
-        ids = self.request.get_all("id")
-        if ids:
-            for id in ids:
-                entry = TodolistEntry.mark_deleted(id)
-                if entry:
-                    send_update(users.get_current_user().user_id(),encode_json(entry.to_dict()))
-        else:
-            for entry in TodolistEntry.all():
-                entry = TodolistEntry.mark_deleted(entry.id)
-                if entry:
-                    send_update(users.get_current_user().user_id(),encode_json(entry.to_dict()))
+        try:
+            ids = [int(id) for id in self.request.get_all("id")]
+        except ValueError,e:
+            logging.error("Invalid parameter in DELETE: "+str(e))
+            self.error(400)
+            return
+
+        entries = TodolistEntry.mark_deleted_batch(ids or None)
+        if entries:
+            send_update(users.get_current_user().user_id(),[entry.to_dict() for entry in entries])
+
+
+class EntryDeleteHandler(webapp.RequestHandler):
+    """ Servlet to handle the /todolist/entries/delete URL"""
+
+    @update_timestamp
+    def post(self):
+        """Deletes the entries with the ids listed in the body
+
+        URI Params:
+            None
+
+        Body:
+            ids - list of the ids of the entries to delete
+
+        Status Codes:
+            200(ok) - ok, body includes a todolist_entry list of the deleted entries
+            400(bad request) - invalid body specified
+        """
+
+        try:
+            ids = [int(id) for id in json.loads(self.request.body)["ids"]]
+        except (ValueError, KeyError, TypeError),e:
+            logging.error("Invalid delete in POST: "+str(e))
+            self.error(400)
+            return
+
+        entries = TodolistEntry.mark_deleted_batch(ids)
+        self.response.headers['Content-type'] = 'application/json'
+        self.response.out.write(encode_entry_list(max_seq(entries), [entry.to_dict() for entry in entries]))
+        if entries:
+            send_update(users.get_current_user().user_id(),[entry.to_dict() for entry in entries])
+
+
+class EntryBatchHandler(webapp.RequestHandler):
+    """ Servlet to handle the /todolist/entries/batch URL"""
+
+    @update_timestamp
+    def post(self):
+        """Applies a batch of entry creates and updates
+
+        URI Params:
+            None
+
+        Body:
+            batch - id chosen by the client for this batch
+                NOTE: a client that doesn't know whether a batch was applied resends
+                      it with the same id, and gets the original response
+            ops - list of operations, each an object with the fields to set
+                NOTE: an operation with an id updates that entry, without one
+                      a new entry is created
+
+        Status Codes:
+            200(ok) - ok, body includes a todolist_entry list, one entry per operation
+            400(bad request) - invalid body specified
+        """
+
+        user_id = users.get_current_user().user_id()
+        try:
+            request = json.loads(self.request.body)
+            ops = request["ops"]
+            batch_key = None
+            if request.get("batch", None):
+                batch_key = "batch_%s_%s"%(user_id, request["batch"])
+                body = memcache.get(batch_key)
+                if body:
+                    logging.info("Returning response of previously applied batch "+batch_key)
+                    self.response.headers['Content-type'] = 'application/json'
+                    self.response.out.write(body)
+                    return
+
+            entries = TodolistEntry.apply_batch(ops)
+        except (ValueError, KeyError, TypeError, AttributeError, db.BadValueError),e:
+            logging.error("Invalid batch in POST: "+str(e))
+            self.error(400)
+            return
+
+        self.response.headers['Content-type'] = 'application/json'
+        body = encode_json({"timestamp": max_seq(entries),
+                            "entries": tuple([entry and entry.to_dict() for entry in entries])})
+        self.response.out.write(body)
+        if batch_key:
+            memcache.set(batch_key, body, time=batch_response_duration)
+
+        updated = {}
+        for entry in entries:
+            if entry:
+                updated[entry.id] = entry
+        if updated:
+            send_update(user_id,[entry.to_dict() for entry in updated.values()])
 
 
 class EntryHandler(webapp.RequestHandler):
@@ -422,8 +1049,8 @@ class EntryHandler(webapp.RequestHandler):
             410(gone) - entry with specified id does not exist
         """
         user = users.get_current_user()
-        entry = db.get(Key.from_path("TodolistEntry", int(id)))
-        if (entry and not entry.deleted) and (user and entry.user_id == user.user_id()):
+        entry = db.get(entry_key(user.user_id(), id))
+        if entry and not entry.deleted:
             self.response.headers['Content-type'] = 'application/json'
             body = encode_json(entry.to_dict())
             self.response.out.write(body)
@@ -458,7 +1085,7 @@ class EntryHandler(webapp.RequestHandler):
             self.response.headers['Content-type'] = 'application/json'
             body = encode_json(entry.to_dict())
             self.response.out.write(body)
-            send_update(users.get_current_user().user_id(),body)
+            send_update(users.get_current_user().user_id(),[entry.to_dict()])
         else:
             self.error(410)
 
@@ -476,24 +1103,211 @@ class EntryHandler(webapp.RequestHandler):
 
         entry = TodolistEntry.mark_deleted(id)
         if entry:
-            send_update(users.get_current_user().user_id(),encode_json(entry.to_dict()))
+            send_update(users.get_current_user().user_id(),[entry.to_dict()])
 
 
 class CleanArchiveHandler(webapp.RequestHandler):
     """ Servlet that handles notification of the clean archive cron job"""
 
     def get(self):
-        """  Task request to clean archived deleted entries
+        """  Task request to clean archived deleted entries, that were deleted
+            more than the archive duration ago. Runs that take longer than the
+            clean archive budget continue in a new task, from where they stopped.
 
+            Query String Params:
+                cutoff - modified time before which deleted entries are removed,
+                         set by the run a continuation task is added by
+                cursor - query cursor to continue from
+
+            Status Codes:
+                200(ok) - ok, body includes the counts of entries scanned and
+                          deleted, and the elapsed time
         """
-        query = TodolistEntry.all()
-        query.filter("deleted", True)
-        count=0
-        for entry in query:
-            count+=1
-            entry.delete()
+        start = time()
+        cutoff = float(self.request.get("cutoff", None) or start - archive_duration)
+        cursor = self.request.get("cursor", None)
+
+        query = TodolistEntry.all(keys_only=True)
+        query.filter("deleted =", True)
+        query.filter("modified <", cutoff)
+
+        scanned = 0
+        deleted = 0
+        while True:
+            if cursor:
+                query.with_cursor(cursor)
+            keys = query.fetch(max_batch_size)
+            scanned += len(keys)
+
+            user_keys = {}
+            for key in keys:
+                user_keys.setdefault(key.parent(), []).append(key)
+            for user_key, entry_keys in user_keys.items():
+                deleted += TodolistUser.purge(user_key, entry_keys)
+
+            cursor = query.cursor()
+            if len(keys) < max_batch_size:
+                cursor = None
+                break
+            if time() - start > clean_archive_budget:
+                taskqueue.add(url="/todolist/tasks/clean_archive", method="GET",
+                              params={"cutoff": repr(cutoff), "cursor": cursor})
+                break
+
+        elapsed = time() - start
+        logging.info("CleanArchiveHandler scanned %d and removed %d deleted entries in %.1fs%s"
+                     %(scanned, deleted, elapsed, cursor and ", continuing in a new task" or ""))
+
+        self.response.headers['Content-type'] = 'application/json'
+        self.response.out.write(encode_json({"scanned": scanned,
+                                             "deleted": deleted,
+                                             "elapsed": elapsed,
+                                             "continued": bool(cursor)}))
 
-        logging.info("CleanArchiveHandler removed %d deleted entries"%count)
+
+class MigrateEntriesHandler(webapp.RequestHandler):
+    """ Servlet that handles the migrate entries task"""
+
+    def get(self):
+        """  Task request to move the entries of a user that were written before
+            entries had a user parent under the user, stamped with the user's
+            sequence, so they are synced like any other entry. Runs that take
+            longer than the clean archive budget continue in a new task.
+
+            Query String Params:
+                user_id - id of the user whose entries are migrated
+
+            Status Codes:
+                200(ok) - ok, body includes the count of entries migrated
+        """
+        start = time()
+        user_id = self.request.get("user_id")
+
+        query = TodolistEntry.all(keys_only=True)
+        query.filter("user_id =", user_id)
+        keys = [key for key in query if not key.parent()]
+
+        # Clients are sent the migrated entries, and a deleted copy of
+        #  each entry whose id had to change
+        updated = []
+        continued = False
+        for key in keys:
+            entry = db.get(key)
+            migrated = entry and TodolistEntry.migrate(entry)
+            if migrated:
+                updated.append(migrated.to_dict())
+                if migrated.id != key.id():
+                    updated.append(dict(migrated.to_dict(), id=key.id(), deleted=True))
+            if time() - start > clean_archive_budget:
+                continued = True
+                taskqueue.add(url=migrate_entries_url, method="GET", params={"user_id": user_id})
+                break
+
+        send_update(user_id, updated)
+        if not continued:
+            TodolistUser.mark_migrated(user_id)
+
+        migrated = len([entry for entry in updated if not entry["deleted"]])
+        logging.info("MigrateEntriesHandler migrated %d entries of user %s%s"
+                     %(migrated, user_id, continued and ", continuing in a new task" or ""))
+
+        self.response.headers['Content-type'] = 'application/json'
+        self.response.out.write(encode_json({"migrated": migrated, "continued": continued}))
+
+
+class SendUpdatesHandler(webapp.RequestHandler):
+    """ Servlet that handles the update fan out task"""
+
+    def post(self):
+        """  Task request to send the queued updates to the channel clients.
+            The updates queued for each user are merged, and sent to each
+            of their clients in as few messages as fit.
+
+        """
+        leased, user_entries = lease_updates()
+        for user_id, entries in user_entries.items():
+            encode_messages = update_messages(entries)
+            messages = {}
+            for client_id in get_update_clients(user_id):
+                format = parse_client_format(client_id)
+                if format not in messages:
+                    messages[format] = encode_messages(format)
+                send_messages(client_id, messages[format])
+        finish_updates(leased)
+
+        logging.info("SendUpdatesHandler sent %d updates for %d users"%(len(leased), len(user_entries)))
+
+
+class MetricsHandler(webapp.RequestHandler):
+    """ Servlet to handle the /todolist/metrics URL"""
+
+    def post(self):
+        """Queues a beacon of client timing histograms, to be aggregated
+            by the aggregate metrics task
+
+        Body:
+            histograms - list of the histograms of each metric and list size
+
+        Status Codes:
+            204(no content) - ok
+            400(bad request) - invalid body specified
+        """
+        try:
+            histograms = parse_beacon(self.request.body)
+        except ValueError,e:
+            logging.error("Invalid metrics in POST: "+str(e))
+            self.error(400)
+            return
+
+        if histograms:
+            queue_beacon(histograms, time())
+        self.response.set_status(204)
+
+    def get(self):
+        """Retrieves the percentiles of a metric, per list size
+
+        URI Params:
+            name - name of the metric
+            hours - number of hours to report on, defaults to 24
+
+        Status Codes:
+            200(ok) - ok
+            400(bad request) - invalid query string specified
+            403(forbidden) - user is not an admin
+        """
+        if not users.is_current_user_admin():
+            self.error(403)
+            return
+
+        name = self.request.get("name")
+        try:
+            hours = int(self.request.get("hours", None) or 24)
+        except ValueError:
+            self.error(400)
+            return
+        if name not in metric_names or hours < 1:
+            self.error(400)
+            return
+
+        self.response.headers['Content-type'] = 'application/json'
+        self.response.out.write(encode_json({"name": name,
+                                             "hours": hours,
+                                             "sizes": get_percentiles(name, int(time() / 3600) - hours + 1)}))
+
+
+class AggregateMetricsHandler(webapp.RequestHandler):
+    """ Servlet that handles notification of the aggregate metrics cron job"""
+
+    def get(self):
+        """  Task request to add the queued metrics beacons to the hourly
+            histograms. A run that leases a full batch of beacons continues
+            in a new task.
+        """
+        aggregated = aggregate_beacons()
+        if aggregated >= max_lease_beacons:
+            taskqueue.add(url="/todolist/tasks/aggregate_metrics", method="GET")
+
+        logging.info("AggregateMetricsHandler aggregated %d beacons"%aggregated)
 
 
 class ChannelHandler(webapp.RequestHandler):
@@ -511,11 +1325,18 @@ class ChannelHandler(webapp.RequestHandler):
         """
 
         # creates a token that is generated by a client_id, which is
-        # the source ip address and the current time in milliseconds
+        # the source ip address, the current time in milliseconds and the
+        # format the client accepts update messages in
         user = users.get_current_user()
         remote_addr = self.request.remote_addr
         logging.info("Client update channel request from "+remote_addr)
-        token = generate_token(user.user_id()+"_"+remote_addr+"_"+str(now))
+
+        # Clients built before update messages could hold several entries
+        #  don't ask for any format
+        format = request_format(self.request)
+        if format == "json" and "application/json" not in self.request.headers.get("Accept", ""):
+            format = "legacy"
+        token = generate_token(user.user_id()+"_"+remote_addr+"_"+str(now)+"_"+format)
 
         self.response.headers['Content-type'] = 'application/json'
         body = encode_json({"token": token})
@@ -577,8 +1398,14 @@ def main():
 
     app = webapp.WSGIApplication([('/', MainPageHandler),
                                   ('/todolist/entries', EntryListHandler),
+                                  ('/todolist/entries/batch', EntryBatchHandler),
+                                  ('/todolist/entries/delete', EntryDeleteHandler),
                                   ('/todolist/entries/(\d+)', EntryHandler),
                                   ('/todolist/tasks/clean_archive', CleanArchiveHandler),
+                                  ('/todolist/tasks/send_updates', SendUpdatesHandler),
+                                  ('/todolist/tasks/migrate_entries', MigrateEntriesHandler),
+                                  ('/todolist/tasks/aggregate_metrics', AggregateMetricsHandler),
+                                  ('/todolist/metrics', MetricsHandler),
                                   ('/todolist/update_channel', ChannelHandler),
                                   ('/_ah/channel/connected/', ChannelConnectHandler),
                                   ('/_ah/channel/disconnected/', ChannelDisconnectHandler)],
@@ -1,40 +1,227 @@
+from time import time
 
 from google.appengine.api import channel
+from google.appengine.api import taskqueue
+from google.appengine.ext import db
+from django.utils import simplejson as json
+
+# URL of the task that fans queued updates out to the channel clients
+fanout_url = "/todolist/tasks/send_updates"
+
+# Delay before queued updates are fanned out, updates queued within
+#  the same delay are sent together
+fanout_delay = 0.25
+
+# Queue the fan out tasks are added to, and pull queue that holds the updates
+fanout_queue = "fanout"
+update_queue = "updates"
+
+# Largest number of updates fanned out by one task, and the largest
+#  number of entries queued in one update
+max_lease_updates = 1000
+max_update_entries = 500
+
+
+class UpdateClientList(db.Model):
+    """
+    Data model for the connected channel clients of a user, keyed by user id.
+    Shared by all instances, so an update made on any instance reaches
+    every client.
+    """
+
+    client_ids = db.StringListProperty()
+
+
+class DatastoreRegistry(object):
+    """ Keeps the connected channel clients in the datastore """
+
+    def add(self, user_id, client_id):
+        def add_tx():
+            clients = UpdateClientList.get_by_key_name(user_id)
+            if not clients:
+                clients = UpdateClientList(key_name=user_id)
+            if client_id not in clients.client_ids:
+                clients.client_ids.append(client_id)
+                clients.put()
+
+        db.run_in_transaction(add_tx)
+
+    def remove(self, user_id, client_id):
+        def remove_tx():
+            clients = UpdateClientList.get_by_key_name(user_id)
+            if clients and client_id in clients.client_ids:
+                clients.client_ids.remove(client_id)
+                clients.put()
+
+        db.run_in_transaction(remove_tx)
+
+    def get(self, user_id):
+        clients = UpdateClientList.get_by_key_name(user_id)
+        if clients:
+            return list(clients.client_ids)
+        return []
+
+
+class TaskQueueUpdates(object):
+    """ Queues updates in a pull queue, and fans them out from a push queue task """
+
+    def add(self, payload):
+        taskqueue.Queue(update_queue).add(taskqueue.Task(payload=payload, method="PULL"))
+
+    def schedule_fanout(self):
+        # Tasks are named after the fan out delay slot they run at the end of,
+        #  so all updates queued within a slot are fanned out by one task
+        slot = int(time() / fanout_delay)
+        try:
+            taskqueue.add(queue_name=fanout_queue,
+                          url=fanout_url,
+                          name="send-updates-%d"%slot,
+                          countdown=max(0, (slot + 1) * fanout_delay - time()))
+        except (taskqueue.TaskAlreadyExistsError, taskqueue.TombstonedTaskError):
+            pass
+
+    def lease(self):
+        tasks = taskqueue.Queue(update_queue).lease_tasks(60, max_lease_updates)
+        return tasks, [task.payload for task in tasks]
+
+    def finish(self, tasks):
+        if tasks:
+            taskqueue.Queue(update_queue).delete_tasks(tasks)
+
+    def send(self, client_id, message):
+        channel.send_message(client_id, message)
+
+
+class LocalRegistry(object):
+    """ Keeps the connected channel clients in a dictionary of this process """
+
+    def __init__(self):
+        self.clients = {}
+
+    def add(self, user_id, client_id):
+        self.clients.setdefault(user_id, set()).add(client_id)
+
+    def remove(self, user_id, client_id):
+        self.clients.get(user_id, set()).discard(client_id)
+
+    def get(self, user_id):
+        return list(self.clients.get(user_id, ()))
+
+
+class LocalUpdates(object):
+    """
+    Queues updates in a list of this process. Nothing is fanned out until
+    the send updates task handler is run, and the messages are recorded
+    per client in 'sent' rather than sent.
+    """
+
+    def __init__(self):
+        self.payloads = []
+        self.fanouts = 0
+        self.sent = {}
+
+    def add(self, payload):
+        self.payloads.append(payload)
+
+    def schedule_fanout(self):
+        self.fanouts += 1
+
+    def lease(self):
+        payloads = self.payloads[:max_lease_updates]
+        return payloads, payloads
+
+    def finish(self, payloads):
+        self.payloads = self.payloads[len(payloads):]
+
+    def send(self, client_id, message):
+        self.sent.setdefault(client_id, []).append(message)
+
+
+registry = DatastoreRegistry()
+updates = TaskQueueUpdates()
+
+
+def use_local_services():
+    """ Replaces the datastore registry and the task queues with in-process stand-ins """
+    global registry, updates
+    registry = LocalRegistry()
+    updates = LocalUpdates()
 
-# List of connected channel clients
-client_list = {}
 
 def parse_client_id(client_id):
     return client_id.split("_")
 
 def generate_token(client_id):
     return channel.create_channel(client_id)
-    
+
 def add_update_client(client_id):
     """ Adds a client id to the client list """
 
-    user_id=parse_client_id(client_id)[0]
-
-    try:
-        client_list[user_id].add(client_id)
-    except KeyError:
-        client_list[user_id] = set( (client_id,) )
+    registry.add(parse_client_id(client_id)[0], client_id)
 
 def remove_update_client(client_id):
     """ Removes a client id to the client list """
 
-    user_id=parse_client_id(client_id)[0]
-    try:
-        client_list[user_id].remove(client_id)
-    except KeyError:
-        pass
-
-def send_update(user_id,message):
-    """ Sends the specfied updated message to all clients in the client_list """
-
-    try:
-        for client_id in client_list[user_id]:
-            channel.send_message(client_id,message)
-    except KeyError:
-        pass
- 
\ No newline at end of file
+    registry.remove(parse_client_id(client_id)[0], client_id)
+
+def get_update_clients(user_id):
+    """ Returns the client ids of the connected clients of a user """
+
+    return registry.get(user_id)
+
+def parse_client_format(client_id):
+    """ Returns the message format the client accepts, 'json' for clients
+        that didn't specify one
+    """
+    fields = parse_client_id(client_id)
+    if len(fields) > 3:
+        return fields[3]
+    return "json"
+
+def send_update(user_id,entries):
+    """ Queues the changed entries, as dictionaries, for the clients of the
+        user. They are sent by the fan out task, so the request doesn't wait
+        for the messages to be delivered.
+    """
+
+    for i in range(0, len(entries), max_update_entries):
+        updates.add(json.dumps({"user_id": user_id, "entries": entries[i:i + max_update_entries]},
+                               separators=(',',':')))
+    if entries:
+        updates.schedule_fanout()
+
+def lease_updates():
+    """ Leases the queued updates, and merges them per user, keeping the
+        latest copy of each entry. Returns the leased updates, to pass to
+        finish_updates once sent, and a dictionary of user id to entries.
+    """
+
+    leased, payloads = updates.lease()
+    user_entries = {}
+    for payload in payloads:
+        update = json.loads(payload)
+        entries = user_entries.setdefault(update["user_id"], {})
+        for entry in update["entries"]:
+            current = entries.get(entry["id"], None)
+            if not current or current["seq"] <= entry["seq"]:
+                entries[entry["id"]] = entry
+
+    merged = {}
+    for user_id, entries in user_entries.items():
+        merged[user_id] = sorted(entries.values(), key=lambda entry: entry["seq"])
+    return leased, merged
+
+def finish_updates(leased):
+    """ Removes sent updates from the queue, and schedules another fan
+        out if there may be more updates queued than one fan out leases
+    """
+
+    updates.finish(leased)
+    if len(leased) >= max_lease_updates:
+        updates.schedule_fanout()
+
+def send_messages(client_id,messages):
+    """ Sends update messages to a client """
+
+    for message in messages:
+        updates.send(client_id,message)
@@ -0,0 +1,52 @@
+package com.oci.example.cloudtodolist.sync.bench;
+
+import com.oci.example.cloudtodolist.sync.SimpleSyncEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies a burst of update channel messages to a loaded list, one entry at
+ * a time as the messages arrive, e.g. while another client edits quickly.
+ * Scores are per update.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OperationsPerInvocation(ChannelBurstBenchmark.BURST_SIZE)
+public class ChannelBurstBenchmark {
+
+    static final int BURST_SIZE = 100;
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private final List<List<SimpleSyncEntry>> bursts = new ArrayList<List<SimpleSyncEntry>>();
+    private int nextBurst = 0;
+    private SyncFixture loaded;
+
+    @Setup
+    public void setUp() {
+        loaded = new SyncFixture();
+        loaded.engine.applyAll(SyncFixture.fullList(size));
+
+        // Alternate between two bursts written at the same sequence number,
+        //  so the updates are never ignored as older than the entries held
+        bursts.add(SyncFixture.changes(size, BURST_SIZE, size + 1, false, 1));
+        bursts.add(SyncFixture.changes(size, BURST_SIZE, size + 1, false, 2));
+    }
+
+    @Benchmark
+    public int burst() {
+        List<SimpleSyncEntry> burst = bursts.get(nextBurst);
+        nextBurst = (nextBurst + 1) % bursts.size();
+        for (SimpleSyncEntry entry : burst)
+            loaded.engine.apply(entry);
+        return loaded.listed.size();
+    }
+}
@@ -0,0 +1,87 @@
+package com.oci.example.cloudtodolist.sync.bench;
+
+import com.oci.example.cloudtodolist.sync.SimpleSyncEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges entry lists into a loaded list: a full list into an empty client,
+ * a delta of changed entries, tombstones of deleted entries, and the live
+ * ids of a compacted list, 1% of the entries changing in each.
+ *
+ * The benchmarks that delete entries restore them in the same invocation,
+ * so every invocation starts from the full list.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MergeBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private List<SimpleSyncEntry> fullList;
+    private List<SimpleSyncEntry> delta;
+    private List<SimpleSyncEntry> tombstones;
+    private List<SimpleSyncEntry> restores;
+    private Set<Integer> liveIds;
+    private SyncFixture loaded;
+
+    @Setup
+    public void setUp() {
+        int changed = Math.max(1, size / 100);
+        fullList = SyncFixture.fullList(size);
+        delta = SyncFixture.changes(size, changed, size + 1, false, 1);
+
+        // Deleted and restored copies share a sequence number, so each
+        //  replaces the other on every invocation
+        tombstones = SyncFixture.changes(size, changed, size + 2, true, 2);
+        restores = SyncFixture.changes(size, changed, size + 2, false, 2);
+
+        liveIds = new HashSet<Integer>();
+        for (SimpleSyncEntry entry : fullList)
+            liveIds.add(entry.getId());
+        for (SimpleSyncEntry entry : tombstones)
+            liveIds.remove(entry.getId());
+
+        loaded = new SyncFixture();
+        loaded.engine.applyAll(fullList);
+        loaded.engine.advance(size);
+    }
+
+    @Benchmark
+    public int fullList() {
+        SyncFixture fixture = new SyncFixture();
+        fixture.engine.applyAll(fullList);
+        fixture.engine.advance(size);
+        return fixture.listed.size();
+    }
+
+    @Benchmark
+    public int delta() {
+        loaded.engine.applyAll(delta);
+        return loaded.listed.size();
+    }
+
+    @Benchmark
+    public int tombstones() {
+        loaded.engine.applyAll(tombstones);
+        int listed = loaded.listed.size();
+        loaded.engine.applyAll(restores);
+        return listed;
+    }
+
+    @Benchmark
+    public int removeMissing() {
+        int removed = loaded.engine.removeMissing(liveIds, size + 2);
+        loaded.engine.applyAll(restores);
+        return removed;
+    }
+}
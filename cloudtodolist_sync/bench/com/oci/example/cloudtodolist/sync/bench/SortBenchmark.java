@@ -0,0 +1,57 @@
+package com.oci.example.cloudtodolist.sync.bench;
+
+import com.oci.example.cloudtodolist.sync.CompareCreated;
+import com.oci.example.cloudtodolist.sync.SimpleSyncEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders the entries by creation time: sorting them, as the index does when
+ * a filter changes the listed entries, and inserting them one at a time, as
+ * the index does when entries arrive in hash map order, e.g. from the cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SortBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    private final CompareCreated<SimpleSyncEntry> compareCreated = new CompareCreated<SimpleSyncEntry>();
+    private List<SimpleSyncEntry> shuffled;
+
+    @Setup
+    public void setUp() {
+        shuffled = SyncFixture.shuffledList(size);
+    }
+
+    @Benchmark
+    public List<SimpleSyncEntry> sort() {
+        List<SimpleSyncEntry> sorted = new ArrayList<SimpleSyncEntry>(shuffled);
+        Collections.sort(sorted, compareCreated);
+        return sorted;
+    }
+
+    @Benchmark
+    public int replace() {
+        SyncFixture fixture = new SyncFixture();
+        fixture.index.replace(shuffled);
+        return fixture.listed.size();
+    }
+
+    @Benchmark
+    public int insert() {
+        SyncFixture fixture = new SyncFixture();
+        for (SimpleSyncEntry entry : shuffled)
+            fixture.index.put(entry);
+        return fixture.listed.size();
+    }
+}
@@ -0,0 +1,27 @@
+package com.oci.example.cloudtodolist.sync.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all the sync engine benchmarks with the GC profiler, which adds the
+ * allocation rate, per second and per operation, to each benchmark's score.
+ * Arguments are benchmark name patterns, e.g. 'MergeBenchmark.delta', and
+ * default to all the benchmarks of this package.
+ */
+public class SyncBenchmarks {
+
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder options = new OptionsBuilder();
+        if (args.length == 0)
+            options.include(SyncBenchmarks.class.getPackage().getName() + ".*Benchmark");
+        for (String pattern : args)
+            options.include(pattern);
+
+        Options built = options.addProfiler(GCProfiler.class).build();
+        new Runner(built).run();
+    }
+}
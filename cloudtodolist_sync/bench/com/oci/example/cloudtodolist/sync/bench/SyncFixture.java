@@ -0,0 +1,87 @@
+package com.oci.example.cloudtodolist.sync.bench;
+
+import com.oci.example.cloudtodolist.sync.CompareCreated;
+import com.oci.example.cloudtodolist.sync.EntryIndex;
+import com.oci.example.cloudtodolist.sync.SimpleSyncEntry;
+import com.oci.example.cloudtodolist.sync.SyncEngine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A sync engine wired to a sorted entry index the way the browser client
+ * wires it to the table's list, plus the entry lists the benchmarks apply.
+ */
+class SyncFixture {
+
+    // Fixed seed, so every run applies the same lists
+    private static final long SEED = 42;
+
+    // Server time of the first entry, entries are created a second apart
+    private static final double START_TIME = 1317532850.0;
+
+    final List<SimpleSyncEntry> listed = new ArrayList<SimpleSyncEntry>();
+    final EntryIndex<SimpleSyncEntry> index = new EntryIndex<SimpleSyncEntry>(listed,
+            new CompareCreated<SimpleSyncEntry>());
+    final SyncEngine<SimpleSyncEntry> engine = new SyncEngine<SimpleSyncEntry>(
+            new SyncEngine.Listener<SimpleSyncEntry>() {
+                public SimpleSyncEntry rebase(SimpleSyncEntry entry) {
+                    return entry;
+                }
+
+                public void onPut(SimpleSyncEntry entry, SimpleSyncEntry oldEntry) {
+                    if (oldEntry != null && oldEntry.getCreated() != entry.getCreated())
+                        index.remove(oldEntry);
+                    index.put(entry);
+                }
+
+                public void onRemove(SimpleSyncEntry oldEntry) {
+                    index.remove(oldEntry);
+                }
+            });
+
+    /**
+     * Returns a full list of entries, with ids 1 to size, in the order the
+     * server returns them, i.e. by creation time
+     */
+    static List<SimpleSyncEntry> fullList(int size) {
+        List<SimpleSyncEntry> entries = new ArrayList<SimpleSyncEntry>(size);
+        for (int id = 1; id <= size; id++)
+            entries.add(entry(id, id, false, false));
+        return entries;
+    }
+
+    /**
+     * Returns the full list in random order, as the entries of a cache or a
+     * hash map come out
+     */
+    static List<SimpleSyncEntry> shuffledList(int size) {
+        List<SimpleSyncEntry> entries = fullList(size);
+        Collections.shuffle(entries, new Random(SEED));
+        return entries;
+    }
+
+    /**
+     * Returns copies of count random entries of a list of size entries,
+     * written by the change with the specified sequence number. Changes
+     * made with the same seed are to the same entries.
+     */
+    static List<SimpleSyncEntry> changes(int size, int count, int seq, boolean deleted, long seed) {
+        Random random = new Random(SEED + seed);
+        List<SimpleSyncEntry> entries = new ArrayList<SimpleSyncEntry>(count);
+        for (int i = 0; i < count; i++) {
+            int id = 1 + random.nextInt(size);
+            boolean complete = random.nextBoolean();
+            entries.add(entry(id, seq, complete && !deleted, deleted));
+        }
+        return entries;
+    }
+
+    static SimpleSyncEntry entry(int id, int seq, boolean complete, boolean deleted) {
+        double created = START_TIME + id;
+        return new SimpleSyncEntry(id, "Entry " + id, id % 4 == 0 ? "Notes of entry " + id : null,
+                complete, created, created + seq, seq, deleted);
+    }
+}
@@ -0,0 +1,22 @@
+package com.oci.example.cloudtodolist.sync;
+
+import java.util.Comparator;
+
+/**
+ * Orders entries by creation time, breaking ties by id so that
+ * no two distinct entries compare equal
+ */
+public class CompareCreated<E extends SyncEntry> implements Comparator<E> {
+
+    public int compare(E e1, E e2) {
+        if (e1.getCreated() < e2.getCreated())
+            return -1;
+        if (e1.getCreated() > e2.getCreated())
+            return 1;
+        if (e1.getId() < e2.getId())
+            return -1;
+        if (e1.getId() > e2.getId())
+            return 1;
+        return 0;
+    }
+}
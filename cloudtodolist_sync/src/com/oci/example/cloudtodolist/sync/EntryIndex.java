@@ -0,0 +1,67 @@
+package com.oci.example.cloudtodolist.sync;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Maintains a list of entries in sorted order, one entry at a time.
+ * Inserts, removes and replacements locate their position with a binary
+ * search, so a single change costs O(log n) plus the list operation itself.
+ *
+ * When the backing list is the list of a ListDataProvider, the provider
+ * only pushes the modified range to its displays, so a replaced entry
+ * redraws a single row instead of the whole table.
+ */
+public class EntryIndex<E extends SyncEntry> {
+
+    private final List<E> entries;
+    private final Comparator<? super E> comparator;
+
+    public EntryIndex(List<E> entries, Comparator<? super E> comparator) {
+        this.entries = entries;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Inserts the entry, or replaces the entry already stored in its position.
+     * The comparator must order on values that do not change once an entry is
+     * created, so that a newer copy of an entry lands on the old copy's slot.
+     */
+    public void put(E entry) {
+        int index = Collections.binarySearch(entries, entry, comparator);
+        if (index >= 0)
+            entries.set(index, entry);
+        else
+            entries.add(-index - 1, entry);
+    }
+
+    /**
+     * Removes the entry, if present
+     */
+    public void remove(E entry) {
+        int index = Collections.binarySearch(entries, entry, comparator);
+        if (index >= 0)
+            entries.remove(index);
+    }
+
+    /**
+     * Replaces all the entries, e.g. when a different subset is to be listed
+     */
+    public void replace(Collection<E> newEntries) {
+        List<E> sorted = new ArrayList<E>(newEntries);
+        Collections.sort(sorted, comparator);
+        entries.clear();
+        entries.addAll(sorted);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,61 @@
+package com.oci.example.cloudtodolist.sync;
+
+/**
+ * Plain, immutable entry, with the same fields as an entry of the server's
+ * protocol, for running the sync engine outside the browser.
+ */
+public class SimpleSyncEntry implements SyncEntry {
+
+    private final int id;
+    private final String title;
+    private final String notes;
+    private final boolean complete;
+    private final double created;
+    private final double modified;
+    private final int seq;
+    private final boolean deleted;
+
+    public SimpleSyncEntry(int id, String title, String notes, boolean complete,
+                           double created, double modified, int seq, boolean deleted) {
+        this.id = id;
+        this.title = title;
+        this.notes = notes;
+        this.complete = complete;
+        this.created = created;
+        this.modified = modified;
+        this.seq = seq;
+        this.deleted = deleted;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getNotes() {
+        return notes;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public double getCreated() {
+        return created;
+    }
+
+    public double getModified() {
+        return modified;
+    }
+
+    public int getSeq() {
+        return seq;
+    }
+
+    public boolean getDeleted() {
+        return deleted;
+    }
+}
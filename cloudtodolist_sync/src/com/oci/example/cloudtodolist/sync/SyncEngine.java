@@ -0,0 +1,166 @@
+package com.oci.example.cloudtodolist.sync;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a client's copy of a todo list in sync with the server: merges the
+ * entries of entry list responses and update messages into the entries held,
+ * removes the entries deleted on the server, and tracks the sequence number
+ * the held entries are synced to, to request the next changes since.
+ *
+ * A copy of an entry older than the one held, by sequence number, is ignored,
+ * so entries can be applied in any order. A deleted copy is a tombstone, and
+ * removes the entry. The tombstone's sequence number is kept until the sync
+ * point passes it, so an older copy of the entry received after it, e.g. from
+ * a list read before the delete, doesn't bring the entry back. The listener is told of every entry put or removed, to
+ * keep its views of the entries, e.g. an EntryIndex, up to date.
+ *
+ * Entries with negative ids are created locally and not yet on the server,
+ * and are never removed for missing from the server's list.
+ *
+ * Only the JRE emulation is used, so the same engine runs in the browser
+ * and on a JVM, for benchmarks and load tests.
+ */
+public class SyncEngine<E extends SyncEntry> {
+
+    public interface Listener<E> {
+        /**
+         * Returns the copy of an entry to hold, e.g. with local edits not yet
+         * acknowledged by the server applied to it
+         */
+        E rebase(E entry);
+
+        /**
+         * Called when an entry was put, oldEntry is the copy it replaced, or null
+         */
+        void onPut(E entry, E oldEntry);
+
+        void onRemove(E oldEntry);
+    }
+
+    private final Map<Integer, E> entries = new HashMap<Integer, E>();
+    private final Map<Integer, Integer> tombstoneSeqs = new HashMap<Integer, Integer>();
+    private final Listener<E> listener;
+    private double lastSyncTime = 0;
+
+    public SyncEngine(Listener<E> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Applies a copy of an entry, returns false if it was older than the copy
+     * held, or than the tombstone of the entry
+     */
+    public boolean apply(E entry) {
+        E currentEntry = entries.get(entry.getId());
+        if (currentEntry != null && entry.getSeq() < currentEntry.getSeq())
+            return false;
+        Integer tombstoneSeq = tombstoneSeqs.get(entry.getId());
+        if (tombstoneSeq != null && entry.getSeq() < tombstoneSeq)
+            return false;
+
+        if (entry.getDeleted()) {
+            tombstoneSeqs.put(entry.getId(), entry.getSeq());
+            remove(entry.getId());
+        } else {
+            put(listener.rebase(entry));
+        }
+        return true;
+    }
+
+    public void applyAll(Collection<E> entries) {
+        for (E entry : entries)
+            apply(entry);
+    }
+
+    /**
+     * Removes the entry with the specified id, e.g. once deleted or replaced
+     * by the server's copy
+     */
+    public void remove(int id) {
+        E oldEntry = entries.remove(id);
+        if (oldEntry != null)
+            listener.onRemove(oldEntry);
+    }
+
+    /**
+     * Removes the entries missing from a full list, or from the live ids of a
+     * compacted list, read at the specified sequence number. Entries with a
+     * later sequence number were received since the list was read, and are kept.
+     *
+     * @return the number of entries removed
+     */
+    public int removeMissing(Set<Integer> entryIds, double seq) {
+        int removed = 0;
+        for (E entry : new ArrayList<E>(entries.values())) {
+            if (entry.getId() > 0 && entry.getSeq() <= seq && !entryIds.contains(entry.getId())) {
+                remove(entry.getId());
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Moves the sync point to the sequence number of a list just applied, and
+     * drops the tombstones it passed. It never moves back, e.g. for a list
+     * applied after a newer one.
+     *
+     * @return whether the sync point moved
+     */
+    public boolean advance(double seq) {
+        if (seq < lastSyncTime)
+            return false;
+        lastSyncTime = seq;
+
+        Iterator<Integer> tombstones = tombstoneSeqs.values().iterator();
+        while (tombstones.hasNext()) {
+            if (tombstones.next() <= seq)
+                tombstones.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the sequence number the entries are synced to, or 0 if the full
+     * list needs to be requested
+     */
+    public double getLastSyncTime() {
+        return lastSyncTime;
+    }
+
+    /**
+     * Sets the sync point, e.g. to that of the cached entries, or 0 to
+     * request the full list again
+     */
+    public void setLastSyncTime(double lastSyncTime) {
+        this.lastSyncTime = lastSyncTime;
+    }
+
+    public E get(int id) {
+        return entries.get(id);
+    }
+
+    public Collection<E> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    private void put(E entry) {
+        E oldEntry = entries.put(entry.getId(), entry);
+        listener.onPut(entry, oldEntry);
+    }
+}
@@ -0,0 +1,23 @@
+package com.oci.example.cloudtodolist.sync;
+
+/**
+ * Fields of a todo list entry the sync engine reads. Implemented by the
+ * client's overlay type in the browser, and by SimpleSyncEntry on a JVM.
+ */
+public interface SyncEntry {
+
+    int getId();
+
+    double getCreated();
+
+    /**
+     * Returns the sequence number of the server change that last wrote the entry,
+     * or 0 for an entry not yet created on the server
+     */
+    int getSeq();
+
+    /**
+     * Returns whether the entry is a tombstone, i.e. it was deleted on the server
+     */
+    boolean getDeleted();
+}
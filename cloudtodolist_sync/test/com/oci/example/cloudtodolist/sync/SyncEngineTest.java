@@ -0,0 +1,140 @@
+package com.oci.example.cloudtodolist.sync;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SyncEngineTest {
+
+    private final List<Integer> removed = new ArrayList<Integer>();
+    private SyncEngine<SimpleSyncEntry> engine;
+
+    @Before
+    public void setUp() {
+        engine = new SyncEngine<SimpleSyncEntry>(new SyncEngine.Listener<SimpleSyncEntry>() {
+            public SimpleSyncEntry rebase(SimpleSyncEntry entry) {
+                return entry;
+            }
+
+            public void onPut(SimpleSyncEntry entry, SimpleSyncEntry oldEntry) {
+            }
+
+            public void onRemove(SimpleSyncEntry oldEntry) {
+                removed.add(oldEntry.getId());
+            }
+        });
+    }
+
+    private static SimpleSyncEntry entry(int id, String title, int seq) {
+        return new SimpleSyncEntry(id, title, "", false, id, seq, seq, false);
+    }
+
+    private static SimpleSyncEntry tombstone(int id, int seq) {
+        return new SimpleSyncEntry(id, "", "", false, id, seq, seq, true);
+    }
+
+    @Test
+    public void newerCopyReplacesHeldCopy() {
+        assertTrue(engine.apply(entry(1, "first", 1)));
+        assertTrue(engine.apply(entry(1, "second", 2)));
+        assertEquals("second", engine.get(1).getTitle());
+    }
+
+    @Test
+    public void olderCopyIsIgnored() {
+        engine.apply(entry(1, "second", 2));
+        assertFalse(engine.apply(entry(1, "first", 1)));
+        assertEquals("second", engine.get(1).getTitle());
+    }
+
+    @Test
+    public void copiesAppliedInAnyOrderEndAtTheNewest() {
+        engine.applyAll(Arrays.asList(entry(1, "b", 2), entry(1, "c", 3), entry(1, "a", 1)));
+        assertEquals("c", engine.get(1).getTitle());
+        assertEquals(1, engine.size());
+    }
+
+    @Test
+    public void tombstoneRemovesEntry() {
+        engine.apply(entry(1, "first", 1));
+        assertTrue(engine.apply(tombstone(1, 2)));
+        assertNull(engine.get(1));
+        assertEquals(Arrays.asList(1), removed);
+    }
+
+    @Test
+    public void olderCopyAfterTombstoneDoesNotResurrectEntry() {
+        engine.apply(entry(1, "first", 1));
+        engine.apply(tombstone(1, 3));
+        assertFalse(engine.apply(entry(1, "second", 2)));
+        assertNull(engine.get(1));
+    }
+
+    @Test
+    public void olderCopyAfterTombstoneOfUnheldEntryIsIgnored() {
+        engine.apply(tombstone(1, 3));
+        assertFalse(engine.apply(entry(1, "first", 1)));
+        assertTrue(engine.isEmpty());
+    }
+
+    @Test
+    public void newerCopyAfterTombstoneIsApplied() {
+        engine.apply(tombstone(1, 3));
+        assertTrue(engine.apply(entry(1, "restored", 4)));
+        assertEquals("restored", engine.get(1).getTitle());
+    }
+
+    @Test
+    public void advanceDropsPassedTombstones() {
+        engine.apply(tombstone(1, 3));
+        engine.apply(tombstone(2, 5));
+        engine.advance(4);
+
+        // The sync point passed the first tombstone only
+        assertTrue(engine.apply(entry(1, "first", 1)));
+        assertFalse(engine.apply(entry(2, "second", 2)));
+    }
+
+    @Test
+    public void removeMissingRemovesEntriesMissingFromTheList() {
+        engine.apply(entry(1, "first", 1));
+        engine.apply(entry(2, "second", 2));
+        assertEquals(1, engine.removeMissing(new HashSet<Integer>(Arrays.asList(2)), 2));
+        assertNull(engine.get(1));
+        assertEquals("second", engine.get(2).getTitle());
+    }
+
+    @Test
+    public void removeMissingKeepsEntriesReceivedSinceTheList() {
+        engine.apply(entry(1, "first", 1));
+        engine.apply(entry(2, "second", 3));
+        assertEquals(0, engine.removeMissing(new HashSet<Integer>(Arrays.asList(1)), 2));
+        assertEquals("second", engine.get(2).getTitle());
+    }
+
+    @Test
+    public void removeMissingKeepsLocalEntries() {
+        engine.apply(entry(-1, "local", 0));
+        assertEquals(0, engine.removeMissing(new HashSet<Integer>(), 2));
+        assertEquals("local", engine.get(-1).getTitle());
+    }
+
+    @Test
+    public void advanceNeverMovesBack() {
+        assertTrue(engine.advance(5));
+        assertFalse(engine.advance(3));
+        assertEquals(5.0, engine.getLastSyncTime(), 0);
+        assertTrue(engine.advance(5));
+        assertTrue(engine.advance(7));
+        assertEquals(7.0, engine.getLastSyncTime(), 0);
+    }
+}